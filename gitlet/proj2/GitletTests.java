@@ -14,17 +14,24 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
 import java.security.Permission;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -281,6 +288,23 @@ public class GitletTests {
         }
     }
 
+    /**
+     * Copies a source testing directory and everything under it into the
+     * current testing directory.
+     *
+     * @param src -- Path to source testing directory
+     * @param dst -- directory name to write to; must not exist
+     */
+    public static void writeDir(Path src, String dst) {
+        try (var paths = Files.walk(src)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Files.copy(path, Path.of(dst).resolve(src.relativize(path).toString()));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Deletes a file from the current testing directory.
      *
@@ -1465,4 +1489,912 @@ public class GitletTests {
         assertFileEquals(NOTF, "F.txt");
         assertFileEquals(G, "G.txt");
     }
+
+    @Test
+    public void test53_legacyRepository() {
+        writeDir(SRC.resolve("legacy"), ".gitlet");
+        writeFile(NOTWUG, "f.txt");
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                other
+
+                === Staged Files ===
+                h.txt
+
+                === Removed Files ===
+                g.txt
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+        gitletCommand(new String[]{"commit", "Legacy stage"}, "");
+        gitletCommandP(new String[]{"log"}, "===\n" + COMMIT_HEAD + "\nLegacy stage\n\n"
+                + "===\ncommit f0430b42ec3127b0885e1f629794d9262ec6283c\n" + DATE + "\nChanged f\n\n"
+                + "===\ncommit ff0bb069287ff032335fc15d7ff93de2d2df488a\n" + DATE + "\nTwo files\n\n"
+                + "===\ncommit 6b17f6e116fd1ebb876ee30f66d51ad3b95c744d\n" + DATE + "\ninitial commit\n\n");
+        gitletCommand(new String[]{"migrate"}, "");
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        assertFileEquals(WUG, "f.txt");
+        assertFileEquals(NOTWUG, "g.txt");
+        assertFileDoesNotExist("h.txt");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        assertFileEquals(NOTWUG, "f.txt");
+        assertFileEquals(WUG2, "h.txt");
+        assertFileDoesNotExist("g.txt");
+    }
+
+    @Test
+    public void test50_gcPacksObjects() throws IOException {
+        i_setup2();
+        writeFile(WUG2, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Changed f"}, "");
+        String history = """
+                ===
+                ${HEADER}
+                ${DATE}
+                Changed f
+
+                ===
+                ${HEADER}
+                ${DATE}
+                Two files
+
+                ===
+                ${HEADER}
+                ${DATE}
+                initial commit
+
+                """
+                .replace("${HEADER}", "commit ([a-f0-9]+)")
+                .replace("${DATE}", DATE);
+        String first = gitletCommandP(new String[]{"log"}, history).group(2);
+        gitletCommand(new String[]{"gc"}, "");
+        try (var loose = Files.walk(Path.of(".gitlet", "blobs"))) {
+            assertEquals(0L, loose.filter(Files::isRegularFile).count());
+        }
+        try (var packs = Files.list(Path.of(".gitlet", "packs"))) {
+            assertEquals(2L, packs.count());
+        }
+        gitletCommand(new String[]{"checkout", first, "--", "f.txt"}, "");
+        assertFileEquals(WUG, "f.txt");
+        gitletCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        assertFileEquals(WUG2, "f.txt");
+        gitletCommand(new String[]{"gc"}, "");
+        assertFileEquals(NOTWUG, "g.txt");
+        gitletCommandP(new String[]{"log"}, history);
+    }
+
+    @Test
+    public void test56_knownBlobNotRewritten() throws IOException {
+        i_setup2();
+        gitletCommand(new String[]{"gc"}, "");
+        writeFile(WUG, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        try (var loose = Files.walk(Path.of(".gitlet", "blobs"))) {
+            assertEquals(0L, loose.filter(Files::isRegularFile).count());
+        }
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        try (var loose = Files.walk(Path.of(".gitlet", "blobs"))) {
+            assertEquals(1L, loose.filter(Files::isRegularFile).count());
+        }
+        gitletCommand(new String[]{"commit", "Added h"}, "");
+        deleteFile("h.txt");
+        gitletCommand(new String[]{"checkout", "--", "h.txt"}, "");
+        assertFileEquals(WUG2, "h.txt");
+    }
+
+    @Test
+    public void test60_crissCrossMerge() {
+        gitletCommand(new String[]{"init"}, "");
+        writeFile(WUG, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Base"}, "");
+        gitletCommand(new String[]{"branch", "b"}, "");
+        writeFile(NOTWUG, "g.txt");
+        gitletCommand(new String[]{"add", "g.txt"}, "");
+        gitletCommand(new String[]{"commit", "M1"}, "");
+        gitletCommand(new String[]{"branch", "m1"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"commit", "B1"}, "");
+        gitletCommand(new String[]{"branch", "b1"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        gitletCommand(new String[]{"merge", "b1"}, "");
+        gitletCommand(new String[]{"checkout", "b"}, "");
+        gitletCommand(new String[]{"merge", "m1"}, "");
+        writeFile(A, "i.txt");
+        gitletCommand(new String[]{"add", "i.txt"}, "");
+        gitletCommand(new String[]{"commit", "B3"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        writeFile(WUG3, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "M3"}, "");
+        gitletCommand(new String[]{"merge", "b"}, "");
+        assertFileEquals(WUG3, "f.txt");
+        assertFileEquals(NOTWUG, "g.txt");
+        assertFileEquals(WUG2, "h.txt");
+        assertFileEquals(A, "i.txt");
+        gitletCommand(new String[]{"merge", "b"}, "Given branch is an ancestor of the current branch.");
+    }
+
+    @Test
+    public void test65_daemonOperands() {
+        gitletCommand(new String[]{"daemon", "status"}, "Not in an initialized Gitlet directory.");
+        i_prelude1();
+        gitletCommand(new String[]{"daemon", "foo"}, "Incorrect operands.");
+        gitletCommand(new String[]{"daemon", "stop", "now"}, "Incorrect operands.");
+        gitletCommand(new String[]{"daemon", "status"}, "No daemon is running.");
+        gitletCommand(new String[]{"daemon", "stop"}, "No daemon is running.");
+        assertFileDoesNotExist(".gitlet/daemon.sock");
+    }
+
+    @Test
+    public void test66_batchCommands() throws IOException {
+        gitletCommand(new String[]{"batch", "cmds.txt"}, "Not in an initialized Gitlet directory.");
+        i_prelude1();
+        gitletCommand(new String[]{"batch"}, "Incorrect operands.");
+        gitletCommand(new String[]{"batch", "cmds.txt"}, "Batch file does not exist.");
+        writeFile(WUG, "f.txt");
+        writeFile(NOTWUG, "g.txt");
+        Files.writeString(Path.of("cmds.txt"), """
+                # two commits in one process
+                add f.txt
+                commit "Added f"
+                add g.txt
+                checkpoint
+                commit 'Added g'
+                batch cmds.txt
+                find "Added f"
+                """);
+        Matcher m = gitletCommandP(new String[]{"batch", "cmds.txt"},
+                "Cannot run batch in a batch.\n([a-f0-9]+)\n");
+        gitletCommandP(new String[]{"log"}, """
+                ===
+                ${HEADER}
+                ${DATE}
+                Added g
+
+                ===
+                commit ${ID}
+                ${DATE}
+                Added f
+
+                ===
+                ${HEADER}
+                ${DATE}
+                initial commit
+
+                """
+                .replace("${HEADER}", "commit ([a-f0-9]+)")
+                .replace("${ID}", m.group(1))
+                .replace("${DATE}", DATE));
+    }
+
+    @Test
+    public void test68_untrackedFiles() {
+        i_setup2();
+        writeFile(WUG2, "h.txt");
+        writeFile(WUG3, "a.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                h.txt
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                a.txt
+
+                """);
+    }
+
+    @Test
+    public void test71_addRmPathsAndMergeRemoval() throws IOException {
+        i_prelude1();
+        Files.createDirectories(Path.of("d"));
+        writeFile(WUG, "d/x.txt");
+        writeFile(NOTWUG, "d/y.txt");
+        writeFile(WUG2, "a[1].txt");
+        writeFile(WUG3, "a1.txt");
+        gitletCommand(new String[]{"add", "d", "*.txt"}, "");
+        gitletCommand(new String[]{"commit", "Four files"}, "");
+        gitletCommand(new String[]{"add", "d"}, "");
+        gitletCommand(new String[]{"branch", "other"}, "");
+        gitletCommand(new String[]{"rm", "d"}, "");
+        assertFileDoesNotExist("d/x.txt");
+        gitletCommand(new String[]{"add", "d/x.txt"}, "File does not exist.");
+        gitletCommand(new String[]{"commit", "Removed d"}, "");
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        gitletCommand(new String[]{"rm", "a[1].txt"}, "");
+        assertFileExists("a1.txt");
+        gitletCommand(new String[]{"commit", "Removed a[1]"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        gitletCommand(new String[]{"merge", "other"}, "");
+        assertFileDoesNotExist("a[1].txt");
+        assertFileEquals(WUG3, "a1.txt");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                other
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+    }
+
+    @Test
+    public void test72_stagingIndexRoundTrip() throws IOException {
+        i_setup2();
+        writeFile(WUG2, "h.txt");
+        writeFile(WUG3, "k.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"add", "k.txt"}, "");
+        gitletCommand(new String[]{"rm", "g.txt"}, "");
+        gitletCommand(new String[]{"rm", "k.txt"}, "");
+        Path index = Path.of(".gitlet", "staging_area", "index");
+        byte[] bytes = Files.readAllBytes(index);
+        assertEquals("GSTG", new String(bytes, 0, 4, StandardCharsets.ISO_8859_1));
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                h.txt
+
+                === Removed Files ===
+                g.txt
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                k.txt
+
+                """);
+        gitletCommand(new String[]{"commit", "Staged changes"}, "");
+        assertFileEquals(WUG2, "h.txt");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+                k.txt
+
+                """);
+    }
+
+    @Test
+    public void test73_subdirectories() throws IOException {
+        i_prelude1();
+        Files.createDirectories(Path.of("a", "b"));
+        writeFile(WUG, "a/b/f.txt");
+        writeFile(NOTWUG, "a/g.txt");
+        gitletCommand(new String[]{"add", "a/b/f.txt"}, "");
+        gitletCommand(new String[]{"add", "a/g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Nested files"}, "");
+        gitletCommand(new String[]{"branch", "other"}, "");
+        writeFile(WUG2, "a/b/f.txt");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                other
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+                a/b/f.txt (modified)
+
+                === Untracked Files ===
+
+                """);
+        gitletCommand(new String[]{"add", "a/b/f.txt"}, "");
+        gitletCommand(new String[]{"rm", "a/g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Changed f, removed g"}, "");
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        assertFileEquals(WUG, "a/b/f.txt");
+        assertFileEquals(NOTWUG, "a/g.txt");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        assertFileEquals(WUG2, "a/b/f.txt");
+        assertFileDoesNotExist("a/g.txt");
+        writeFile(WUG3, "a/b/f.txt");
+        gitletCommand(new String[]{"checkout", "--", "a/b/f.txt"}, "");
+        assertFileEquals(WUG2, "a/b/f.txt");
+    }
+
+    @Test
+    public void test74_sparsePatterns() throws IOException {
+        i_prelude1();
+        Files.createDirectories(Path.of("a"));
+        Files.createDirectories(Path.of("b"));
+        writeFile(WUG, "a/f.txt");
+        writeFile(NOTWUG, "b/g.txt");
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "a", "b", "h.txt"}, "");
+        gitletCommand(new String[]{"commit", "Three files"}, "");
+        gitletCommand(new String[]{"sparse"}, "Incorrect operands.");
+        gitletCommand(new String[]{"sparse", "set", "a"}, "");
+        gitletCommand(new String[]{"sparse", "list"}, "a");
+        assertFileEquals(WUG, "a/f.txt");
+        assertFileDoesNotExist("b/g.txt");
+        assertFileDoesNotExist("h.txt");
+        i_blankStatus();
+        gitletCommand(new String[]{"sparse", "add", "*.txt"}, "");
+        gitletCommand(new String[]{"sparse", "list"}, "a\n*.txt");
+        assertFileEquals(WUG2, "h.txt");
+        assertFileDoesNotExist("b/g.txt");
+        /* commits keep files left out of the working directory */
+        writeFile(WUG3, "a/f.txt");
+        gitletCommand(new String[]{"add", "a/f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Changed f"}, "");
+        gitletCommand(new String[]{"sparse", "disable"}, "");
+        gitletCommand(new String[]{"sparse", "list"}, "");
+        assertFileEquals(WUG3, "a/f.txt");
+        assertFileEquals(NOTWUG, "b/g.txt");
+        assertFileEquals(WUG2, "h.txt");
+        i_blankStatus();
+    }
+
+    @Test
+    public void test51_codecs() throws IOException {
+        i_prelude1();
+        String text = "wug ".repeat(16 * 1024);
+        Files.writeString(Path.of("f.txt"), text);
+        /* a file that begins like a compressed object is kept as is */
+        Files.writeString(Path.of("g.txt"), "\0GLO\u0001not compressed");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"add", "g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Two files"}, "");
+        try (var paths = Files.walk(Path.of(".gitlet", "blobs"))) {
+            List<Path> blobs = paths.filter(Files::isRegularFile).toList();
+            assertEquals(2, blobs.size());
+            for (Path blob : blobs) {
+                assertTrue(Files.size(blob) < text.length());
+            }
+        }
+        deleteFile("f.txt");
+        deleteFile("g.txt");
+        gitletCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        gitletCommand(new String[]{"checkout", "--", "g.txt"}, "");
+        assertEquals(text, Files.readString(Path.of("f.txt")));
+        assertEquals("\0GLO\u0001not compressed", Files.readString(Path.of("g.txt")));
+    }
+
+    @Test
+    public void test52_shardedObjects() throws IOException {
+        i_setup2();
+        String id = gitletCommandP(new String[]{"find", "Two files"},
+                "([a-f0-9]{40})\n").group(1);
+        Path shard = Path.of(".gitlet", "commits", id.substring(0, 2), id.substring(2));
+        assertTrue(Files.isRegularFile(shard));
+        /* lay the objects out flat, as repositories made before sharding did */
+        for (String dir : new String[]{"commits", "blobs"}) {
+            String suffix = dir.equals("blobs") ? ".txt" : "";
+            try (var paths = Files.walk(Path.of(".gitlet", dir))) {
+                for (Path path : paths.filter(Files::isRegularFile).toList()) {
+                    Path flat = Path.of(".gitlet", dir, path.getParent().getFileName()
+                            + path.getFileName().toString() + suffix);
+                    Files.move(path, flat);
+                    Files.delete(path.getParent());
+                }
+            }
+        }
+        Files.delete(Path.of(".gitlet", "sharded"));
+        writeFile(WUG2, "f.txt");
+        gitletCommand(new String[]{"checkout", id.substring(0, 8), "--", "f.txt"}, "");
+        assertFileEquals(WUG, "f.txt");
+        gitletCommand(new String[]{"migrate"}, "");
+        assertTrue(Files.isRegularFile(shard));
+        for (String dir : new String[]{"commits", "blobs"}) {
+            try (var paths = Files.list(Path.of(".gitlet", dir))) {
+                for (Path path : paths.toList()) {
+                    assertTrue(path + " is not a shard", Files.isDirectory(path));
+                    assertEquals(2, path.getFileName().toString().length());
+                }
+            }
+        }
+        writeFile(WUG3, "k.txt");
+        gitletCommand(new String[]{"add", "k.txt"}, "");
+        gitletCommand(new String[]{"commit", "After migrate"}, "");
+        String next = gitletCommandP(new String[]{"find", "After migrate"},
+                "([a-f0-9]{40})\n").group(1);
+        assertTrue(Files.isRegularFile(Path.of(".gitlet", "commits",
+                next.substring(0, 2), next.substring(2))));
+        gitletCommand(new String[]{"checkout", id, "--", "k.txt"},
+                "File does not exist in that commit.");
+    }
+
+    @Test
+    public void test54_sharedTrees() throws IOException {
+        i_prelude1();
+        for (int i = 0; i < 100; i += 1) {
+            Files.writeString(Path.of("f" + i + ".txt"), "file " + i + "\n");
+            gitletCommand(new String[]{"add", "f" + i + ".txt"}, "");
+        }
+        gitletCommand(new String[]{"commit", "Many files"}, "");
+        long first = countTreeObjects();
+        assertTrue(first > 2);
+        Files.writeString(Path.of("f7.txt"), "changed\n");
+        gitletCommand(new String[]{"add", "f7.txt"}, "");
+        gitletCommand(new String[]{"commit", "Changed f7"}, "");
+        long second = countTreeObjects();
+        assertTrue(second > first);
+        assertTrue(second - first < first);
+        /* the same snapshot as the first commit reuses all its nodes */
+        Files.writeString(Path.of("f7.txt"), "file 7\n");
+        gitletCommand(new String[]{"add", "f7.txt"}, "");
+        gitletCommand(new String[]{"commit", "Changed f7 back"}, "");
+        assertEquals(second, countTreeObjects());
+        deleteFile("f7.txt");
+        deleteFile("f85.txt");
+        gitletCommand(new String[]{"checkout", "--", "f7.txt"}, "");
+        gitletCommand(new String[]{"checkout", "--", "f85.txt"}, "");
+        assertEquals("file 7\n", Files.readString(Path.of("f7.txt")));
+        assertEquals("file 85\n", Files.readString(Path.of("f85.txt")));
+    }
+
+    /** Returns how many tree nodes are stored loose. */
+    private static long countTreeObjects() throws IOException {
+        try (var paths = Files.walk(Path.of(".gitlet", "trees"))) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    public void test55_streamLargeFiles() throws Exception {
+        i_prelude1();
+        byte[] text = "wug wug wug\n".repeat(300 * 1024).getBytes(StandardCharsets.UTF_8);
+        byte[] noise = new byte[3 << 20];
+        new Random(55).nextBytes(noise);
+        Files.write(Path.of("text.bin"), text);
+        Files.write(Path.of("noise.bin"), noise);
+        gitletCommand(new String[]{"add", "text.bin"}, "");
+        gitletCommand(new String[]{"add", "noise.bin"}, "");
+        gitletCommand(new String[]{"commit", "Large files"}, "");
+        /* stored under the SHA-1 of the raw bytes, compressed only if it helps */
+        Path textBlob = blobPath(text);
+        Path noiseBlob = blobPath(noise);
+        assertTrue(Files.size(textBlob) < text.length / 10);
+        assertTrue(Files.size(noiseBlob) >= noise.length);
+        deleteFile("text.bin");
+        deleteFile("noise.bin");
+        gitletCommand(new String[]{"checkout", "--", "text.bin"}, "");
+        gitletCommand(new String[]{"checkout", "--", "noise.bin"}, "");
+        assertTrue(Arrays.equals(text, Files.readAllBytes(Path.of("text.bin"))));
+        assertTrue(Arrays.equals(noise, Files.readAllBytes(Path.of("noise.bin"))));
+        gitletCommand(new String[]{"add", "noise.bin"}, "");
+        i_blankStatus();
+    }
+
+    /** Returns the loose blob file holding DATA. */
+    private static Path blobPath(byte[] data) throws Exception {
+        StringBuilder id = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+            id.append(String.format("%02x", b));
+        }
+        return Path.of(".gitlet", "blobs", id.substring(0, 2), id.substring(2));
+    }
+
+    @Test
+    public void test57_largeObjectReads() throws IOException {
+        i_prelude1();
+        String base = bigText("base");
+        String ours = bigText("ours");
+        String theirs = bigText("theirs");
+        byte[] noise = new byte[2 << 20];
+        new Random(57).nextBytes(noise);
+        Files.writeString(Path.of("big.txt"), base);
+        Files.write(Path.of("noise.bin"), noise);
+        gitletCommand(new String[]{"add", "big.txt"}, "");
+        gitletCommand(new String[]{"add", "noise.bin"}, "");
+        gitletCommand(new String[]{"commit", "Large files"}, "");
+        gitletCommand(new String[]{"branch", "other"}, "");
+        Files.writeString(Path.of("big.txt"), ours);
+        gitletCommand(new String[]{"add", "big.txt"}, "");
+        gitletCommand(new String[]{"commit", "Ours"}, "");
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        assertEquals(base, Files.readString(Path.of("big.txt")));
+        Files.writeString(Path.of("big.txt"), theirs);
+        gitletCommand(new String[]{"add", "big.txt"}, "");
+        gitletCommand(new String[]{"commit", "Theirs"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        /* from here on every object is read from the pack */
+        gitletCommand(new String[]{"gc"}, "");
+        deleteFile("noise.bin");
+        gitletCommand(new String[]{"checkout", "--", "noise.bin"}, "");
+        assertTrue(Arrays.equals(noise, Files.readAllBytes(Path.of("noise.bin"))));
+        gitletCommand(new String[]{"merge", "other"}, "Encountered a merge conflict.");
+        assertEquals("<<<<<<< HEAD\n" + ours + "=======\n" + theirs + ">>>>>>>\n",
+                Files.readString(Path.of("big.txt")));
+    }
+
+    /** Returns about 200 KB of lines, each naming TAG. */
+    private static String bigText(String tag) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i += 1) {
+            text.append(tag).append(" line ").append(i).append("\n");
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void test58_checkoutModes() throws IOException {
+        i_prelude1();
+        byte[] noise = new byte[2 << 20];
+        new Random(58).nextBytes(noise);
+        Files.write(Path.of("noise.bin"), noise);
+        String text = "wug\n".repeat(10000);
+        Files.writeString(Path.of("f.txt"), text);
+        gitletCommand(new String[]{"add", "noise.bin"}, "");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"commit", "Two files"}, "");
+
+        gitletCommand(new String[]{"config", "checkout.mode"}, "");
+        gitletCommand(new String[]{"config", "checkout.mode", "transfer"}, "");
+        gitletCommand(new String[]{"config", "checkout.mode"}, "transfer");
+        deleteFile("noise.bin");
+        deleteFile("f.txt");
+        gitletCommand(new String[]{"checkout", "--", "noise.bin"}, "");
+        gitletCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        assertTrue(Arrays.equals(noise, Files.readAllBytes(Path.of("noise.bin"))));
+        assertEquals(text, Files.readString(Path.of("f.txt")));
+
+        gitletCommand(new String[]{"config", "checkout.mode", "link"}, "");
+        deleteFile("noise.bin");
+        deleteFile("f.txt");
+        gitletCommand(new String[]{"checkout", "--", "noise.bin"}, "");
+        gitletCommand(new String[]{"checkout", "--", "f.txt"}, "");
+        Path linked = Path.of("noise.bin");
+        assertEquals(2, Files.getAttribute(linked, "unix:nlink"));
+        assertFalse(Files.getPosixFilePermissions(linked)
+                .contains(PosixFilePermission.OWNER_WRITE));
+        assertTrue(Arrays.equals(noise, Files.readAllBytes(linked)));
+        /* compressed objects cannot be linked and are copied */
+        assertEquals(1, Files.getAttribute(Path.of("f.txt"), "unix:nlink"));
+        assertEquals(text, Files.readString(Path.of("f.txt")));
+        /* replacing the linked file leaves the stored object as it was */
+        Files.delete(linked);
+        Files.writeString(linked, "edited");
+        gitletCommand(new String[]{"checkout", "--", "noise.bin"}, "");
+        assertTrue(Arrays.equals(noise, Files.readAllBytes(linked)));
+        i_blankStatus();
+    }
+
+    @Test
+    public void test59_commitGraph() throws IOException {
+        i_setup2();
+        gitletCommand(new String[]{"branch", "other"}, "");
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add h"}, "");
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        writeFile(WUG3, "k.txt");
+        gitletCommand(new String[]{"add", "k.txt"}, "");
+        gitletCommand(new String[]{"commit", "Add k"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        gitletCommand(new String[]{"merge", "other"}, "");
+        Path graph = Path.of(".gitlet", "commit-graph");
+        long size = Files.size(graph);
+        /* a header, then one record per commit: initial, Two files, Add h,
+         * Add k and the merge */
+        assertEquals(12L + 5 * 40, size);
+        runGitletCommand(new String[]{"log"});
+        String log = getOutput();
+        assertTrue(log.contains("Merge: "));
+        assertTrue(log.contains("Merged other into main."));
+        /* a missing graph is rebuilt from the commits as they are looked up */
+        Files.delete(graph);
+        gitletCommand(new String[]{"log"}, log);
+        gitletCommand(new String[]{"merge", "other"}, "Given branch is an ancestor of the current branch.");
+        assertEquals(size, Files.size(graph));
+    }
+
+    @Test
+    public void test61_abbreviatedIds() throws IOException {
+        i_prelude1();
+        /* 18 commits, so at least two ids share their first digit */
+        for (int i = 0; i < 17; i += 1) {
+            Files.writeString(Path.of("f" + i + ".txt"), "version " + i + "\n");
+            gitletCommand(new String[]{"add", "f" + i + ".txt"}, "");
+            gitletCommand(new String[]{"commit", "Commit " + i}, "");
+        }
+        runGitletCommand(new String[]{"global-log"});
+        Matcher m = Pattern.compile("commit ([a-f0-9]{40})").matcher(getOutput());
+        List<String> ids = new ArrayList<>();
+        while (m.find()) {
+            ids.add(m.group(1));
+        }
+        assertEquals(18, ids.size());
+        String shared = null;
+        for (String id : ids) {
+            for (String other : ids) {
+                if (!id.equals(other) && id.charAt(0) == other.charAt(0)) {
+                    shared = id.substring(0, 1);
+                }
+            }
+        }
+        gitletCommand(new String[]{"reset", shared}, "Commit id is ambiguous.");
+        gitletCommand(new String[]{"checkout", "0000000", "--", "f0.txt"},
+                "No commit with that id exists.");
+        Matcher first = gitletCommandP(new String[]{"find", "Commit 0"}, "([a-f0-9]+)\n");
+        String prefix = first.group(1).substring(0, 8);
+        Files.writeString(Path.of("f0.txt"), "edited\n");
+        gitletCommand(new String[]{"checkout", prefix, "--", "f0.txt"}, "");
+        assertEquals("version 0\n", Files.readString(Path.of("f0.txt")));
+        /* the index is rebuilt from the store if it is lost */
+        Files.deleteIfExists(Path.of(".gitlet", "commit-ids"));
+        Files.deleteIfExists(Path.of(".gitlet", "commit-ids.log"));
+        gitletCommand(new String[]{"reset", prefix}, "");
+        assertEquals("version 0\n", Files.readString(Path.of("f0.txt")));
+        assertFileDoesNotExist("f1.txt");
+    }
+
+    @Test
+    public void test62_findByMessage() throws IOException {
+        i_prelude1();
+        String[] messages = {"Fix the parser", "Parser cleanup", "fix typo"};
+        for (int i = 0; i < messages.length; i += 1) {
+            Files.writeString(Path.of("f" + i + ".txt"), messages[i]);
+            gitletCommand(new String[]{"add", "f" + i + ".txt"}, "");
+            gitletCommand(new String[]{"commit", messages[i]}, "");
+        }
+        String parser = gitletCommandP(new String[]{"find", "Fix the parser"},
+                "([a-f0-9]{40})\n").group(1);
+        String cleanup = gitletCommandP(new String[]{"find", "Parser cleanup"},
+                "([a-f0-9]{40})\n").group(1);
+        String typo = gitletCommandP(new String[]{"find", "fix typo"},
+                "([a-f0-9]{40})\n").group(1);
+        gitletCommand(new String[]{"find", "fix the parser"}, "Found no commit with that message.");
+        assertEquals(Set.of(parser, typo), findAll("--term", "FIX"));
+        assertEquals(Set.of(parser), findAll("--term", "fix parser"));
+        assertEquals(Set.of(parser, cleanup), findAll("--prefix", "pars"));
+        gitletCommand(new String[]{"find", "--term", "wug"}, "Found no commit with that message.");
+        /* the index is rebuilt from the store if it is lost */
+        Files.deleteIfExists(Path.of(".gitlet", "messages"));
+        Files.deleteIfExists(Path.of(".gitlet", "messages.log"));
+        assertEquals(Set.of(parser, cleanup), findAll("--prefix", "pars"));
+        gitletCommandP(new String[]{"find", "initial commit"}, "([a-f0-9]{40})\n");
+    }
+
+    /** Returns the commit ids find prints for ARGS. */
+    private static Set<String> findAll(String... args) {
+        String[] command = new String[args.length + 1];
+        command[0] = "find";
+        System.arraycopy(args, 0, command, 1, args.length);
+        runGitletCommand(command);
+        return new HashSet<>(Arrays.asList(getOutput().trim().split("\n")));
+    }
+
+    @Test
+    public void test63_globalLog() throws IOException {
+        i_setup2();
+        gitletCommand(new String[]{"branch", "other"}, "");
+        for (int i = 0; i < 40; i += 1) {
+            Files.writeString(Path.of("f" + i + ".txt"), "version " + i + "\n");
+            gitletCommand(new String[]{"add", "f" + i + ".txt"}, "");
+            gitletCommand(new String[]{"commit", "Main " + i}, "");
+        }
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"commit", "Other"}, "");
+        gitletCommand(new String[]{"rm-branch", "main"}, "");
+        /* every commit once, in id order, even those no branch reaches */
+        runGitletCommand(new String[]{"global-log"});
+        String out = getOutput();
+        Matcher m = Pattern.compile("===\ncommit ([a-f0-9]{40})\n" + DATE + "\n(.*)\n\n")
+                .matcher(out);
+        List<String> ids = new ArrayList<>();
+        Set<String> messages = new HashSet<>();
+        int end = 0;
+        while (m.find()) {
+            assertEquals(end, m.start());
+            end = m.end();
+            ids.add(m.group(1));
+            messages.add(m.group(2));
+        }
+        assertEquals(out.length(), end);
+        assertEquals(43, ids.size());
+        List<String> sorted = new ArrayList<>(ids);
+        sorted.sort(null);
+        assertEquals(sorted, ids);
+        assertTrue(messages.contains("Main 39"));
+        assertTrue(messages.contains("Other"));
+        assertTrue(messages.contains("initial commit"));
+    }
+
+    @Test
+    public void test64_smallCommitCache() throws IOException {
+        i_prelude1();
+        gitletCommand(new String[]{"config", "core.commitCache", "1"}, "");
+        for (int i = 0; i < 4; i += 1) {
+            Files.writeString(Path.of("f.txt"), "version " + i + "\n");
+            gitletCommand(new String[]{"add", "f.txt"}, "");
+            gitletCommand(new String[]{"commit", "Version " + i}, "");
+        }
+        /* each command reads more commits than the cache holds */
+        runGitletCommand(new String[]{"log"});
+        String log = getOutput();
+        gitletCommand(new String[]{"log"}, log);
+        String first = gitletCommandP(new String[]{"find", "Version 0"},
+                "([a-f0-9]{40})\n").group(1);
+        gitletCommand(new String[]{"checkout", first, "--", "f.txt"}, "");
+        assertEquals("version 0\n", Files.readString(Path.of("f.txt")));
+        gitletCommand(new String[]{"reset", first}, "");
+        gitletCommand(new String[]{"log"}, log.substring(log.indexOf("===\ncommit " + first)));
+        runGitletCommand(new String[]{"global-log"});
+        assertEquals(5, getOutput().split("===\n").length - 1);
+    }
+
+    @Test
+    public void test67_statCacheModifications() throws IOException {
+        i_setup2();
+        i_blankStatus();
+        /* g.txt is edited and given the time of the cache file itself */
+        writeFile(NOTWUG, "f.txt");
+        writeFile(WUG, "g.txt");
+        Files.setLastModifiedTime(Path.of("g.txt"),
+                Files.getLastModifiedTime(Path.of(".gitlet", "stat-cache")));
+        writeFile(WUG2, "h.txt");
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        writeFile(WUG3, "h.txt");
+        deleteFile("f.txt");
+        String modified = """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                h.txt
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+                f.txt (deleted)
+                g.txt (modified)
+                h.txt (modified)
+
+                === Untracked Files ===
+
+                """;
+        gitletCommand(new String[]{"status"}, modified);
+        gitletCommand(new String[]{"status"}, modified);
+        /* a new time with the same contents is not a modification */
+        writeFile(WUG, "f.txt");
+        writeFile(NOTWUG, "g.txt");
+        Files.setLastModifiedTime(Path.of("g.txt"), FileTime.fromMillis(0));
+        gitletCommand(new String[]{"add", "h.txt"}, "");
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+
+                === Staged Files ===
+                h.txt
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+    }
+
+    @Test
+    public void test69_parallelCheckout() throws Exception {
+        i_prelude1();
+        gitletCommand(new String[]{"config", "checkout.threads", "4"}, "");
+        for (int i = 0; i < 50; i += 1) {
+            Files.writeString(Path.of("f" + i + ".txt"), "main " + i + "\n");
+            gitletCommand(new String[]{"add", "f" + i + ".txt"}, "");
+        }
+        gitletCommand(new String[]{"commit", "Main files"}, "");
+        gitletCommand(new String[]{"branch", "other"}, "");
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        for (int i = 0; i < 50; i += 1) {
+            Files.writeString(Path.of("f" + i + ".txt"), "other " + i + "\n");
+            gitletCommand(new String[]{"add", "f" + i + ".txt"}, "");
+        }
+        gitletCommand(new String[]{"commit", "Other files"}, "");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        for (int i = 0; i < 50; i += 1) {
+            assertEquals("main " + i + "\n", Files.readString(Path.of("f" + i + ".txt")));
+        }
+        /* if one file cannot be written, none is changed */
+        Files.delete(blobPath("other 37\n".getBytes(StandardCharsets.UTF_8)));
+        gitletCommand(new String[]{"checkout", "other"},
+                "A blob to check out is missing or corrupt.");
+        for (int i = 0; i < 50; i += 1) {
+            assertEquals("main " + i + "\n", Files.readString(Path.of("f" + i + ".txt")));
+        }
+        Files.delete(blobPath("main 12\n".getBytes(StandardCharsets.UTF_8)));
+        Files.writeString(Path.of("f12.txt"), "edited\n");
+        gitletCommand(new String[]{"checkout", "--", "f12.txt"},
+                "A blob to check out is missing or corrupt.");
+        assertEquals("edited\n", Files.readString(Path.of("f12.txt")));
+        Files.writeString(Path.of("f12.txt"), "main 12\n");
+        try (var paths = Files.list(Path.of("."))) {
+            assertEquals(0L, paths.filter(p -> p.getFileName().toString()
+                    .startsWith(".gitlet-")).count());
+        }
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                other
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+    }
+
+    @Test
+    public void test70_incrementalCheckout() throws IOException {
+        i_setup2();
+        writeFile(WUG3, "k.txt");
+        gitletCommand(new String[]{"add", "k.txt"}, "");
+        gitletCommand(new String[]{"commit", "Three files"}, "");
+        gitletCommand(new String[]{"branch", "other"}, "");
+        writeFile(WUG2, "f.txt");
+        gitletCommand(new String[]{"add", "f.txt"}, "");
+        gitletCommand(new String[]{"rm", "g.txt"}, "");
+        gitletCommand(new String[]{"commit", "Changed f, removed g"}, "");
+        Object inode = Files.getAttribute(Path.of("k.txt"), "unix:ino");
+        FileTime time = FileTime.fromMillis(1000);
+        Files.setLastModifiedTime(Path.of("k.txt"), time);
+        gitletCommand(new String[]{"status"}, """
+                === Branches ===
+                *main
+                other
+
+                === Staged Files ===
+
+                === Removed Files ===
+
+                === Modifications Not Staged For Commit ===
+
+                === Untracked Files ===
+
+                """);
+        gitletCommand(new String[]{"checkout", "other"}, "");
+        assertFileEquals(WUG, "f.txt");
+        assertFileEquals(NOTWUG, "g.txt");
+        /* a file both commits track alike is left untouched */
+        assertEquals(inode, Files.getAttribute(Path.of("k.txt"), "unix:ino"));
+        assertEquals(time, Files.getLastModifiedTime(Path.of("k.txt")));
+        /* unless it was deleted from the working directory */
+        deleteFile("k.txt");
+        gitletCommand(new String[]{"checkout", "main"}, "");
+        assertFileEquals(WUG2, "f.txt");
+        assertFileDoesNotExist("g.txt");
+        assertFileEquals(WUG3, "k.txt");
+    }
 }
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs many gitlet commands in one process: gitlet batch FILE reads one
+ * command per line from FILE, or from standard input if FILE is -, and
+ * runs each as Main would against one Repository. Operands are split on
+ * spaces; double quotes (in which a backslash escapes the next
+ * character) and single quotes group words into one operand, and a
+ * backslash outside quotes escapes the next character. Blank lines and
+ * lines starting with # are skipped.
+ *
+ * The staging area and branches are kept in memory for the whole batch
+ * and written when it ends, or when a line reads checkpoint. Objects,
+ * indexes and the working directory are written as each command runs.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Batch {
+
+    /**
+     * Runs the commands in SOURCE against REPO.
+     * @param repo repository
+     * @param source file name, or - for standard input
+     */
+    static void run(Repository repo, String source) {
+        if (source.equals("-")) {
+            run(repo, System.in);
+            return;
+        }
+        File file = new File(source);
+        if (!file.isFile()) {
+            System.out.println("Batch file does not exist.");
+            return;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            run(repo, in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Runs the commands read from IN against REPO.
+     * @param repo repository
+     * @param in commands, one per line
+     */
+    private static void run(Repository repo, InputStream in) {
+        BufferedReader lines = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8));
+        repo.deferWrites(true);
+        try {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                List<String> args = split(line);
+                if (args.isEmpty() || args.get(0).startsWith("#")) {
+                    continue;
+                }
+                String command = args.get(0);
+                if (command.equals("checkpoint") && args.size() == 1) {
+                    repo.flush();
+                } else if (command.equals("batch")
+                        || command.equals("daemon")) {
+                    System.out.println("Cannot run " + command
+                            + " in a batch.");
+                } else {
+                    Main.run(repo, args.toArray(new String[0]));
+                    repo.discardUnsavedStage();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            /* keep what every finished command saved*/
+            repo.discardUnsavedStage();
+            repo.deferWrites(false);
+        }
+    }
+
+    /**
+     * Splits LINE into operands.
+     * @param line one command
+     * @return command and operands
+     */
+    static List<String> split(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                word.append(line.charAt(i));
+                inWord = true;
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inWord = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inWord) {
+                    result.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (inWord) {
+            result.add(word.toString());
+        }
+        return result;
+    }
+}
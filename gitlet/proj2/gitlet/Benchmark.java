@@ -0,0 +1,241 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A benchmarking class whose main program may be invoked as follows:
+ * java gitlet.Benchmark codecs [DIR]
+ * which compresses every plain file under DIR (default: the current
+ * directory) with each object codec and reports the stored size next to
+ * the write and read throughput, so the cost of each codec can be weighed
+ * against what it saves, or
+ * java gitlet.Benchmark commits [N]
+ * which decodes a history of N commits (default: 1000), as log and
+ * global-log do, from both the binary commit format and Java
+ * serialization of the same fields, and reports the time per commit.
+ *
+ * @author Swetha Karthikeyan
+ */
+public class Benchmark {
+
+    /**
+     * Times each measurement is repeated; the fastest run is reported.
+     */
+    private static final int RUNS = 5;
+    /**
+     * Bytes in a megabyte.
+     */
+    private static final double MB = 1024 * 1024;
+
+    /**
+     * Runs the benchmark named by ARGS[0] with the remaining ARGS.
+     */
+    public static void main(String... args) {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.Benchmark codecs [DIR]"
+                    + " | commits [N]");
+            return;
+        }
+        switch (args[0]) {
+            case "codecs":
+                codecs(new File(args.length > 1 ? args[1] : "."));
+                break;
+            case "commits":
+                int numCommits = args.length > 1 ? positive(args[1]) : 1000;
+                if (numCommits < 1) {
+                    System.out.println("The number of commits must be a "
+                            + "positive integer.");
+                    return;
+                }
+                commits(numCommits);
+                break;
+            default:
+                System.out.println("No benchmark with that name exists.");
+        }
+    }
+
+    /**
+     * Returns OPERAND as a number, or 0 if it is not a positive integer.
+     * @param operand command-line operand
+     * @return number or 0
+     */
+    private static int positive(String operand) {
+        try {
+            return Math.max(0, Integer.parseInt(operand));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Compares the codecs on the plain files under DIR.
+     * @param dir directory of sample files
+     */
+    static void codecs(File dir) {
+        List<byte[]> samples = new ArrayList<>();
+        collect(dir, samples);
+        long total = 0;
+        for (byte[] sample : samples) {
+            total += sample.length;
+        }
+        byte[] dict = Codec.train(samples);
+        System.out.printf("%d files, %d bytes, dictionary %d bytes%n",
+                samples.size(), total, dict == null ? 0 : dict.length);
+        System.out.printf("%-14s %12s %7s %12s %12s%n",
+                "codec", "size", "ratio", "write MB/s", "read MB/s");
+        String[] names = {"stored", "deflate", "deflate+dict"};
+        for (int codec = 0; codec < Codec.CODECS; codec += 1) {
+            if (codec == Codec.DEFLATE_DICT && dict == null) {
+                continue;
+            }
+            byte[][] encoded = new byte[samples.size()][];
+            long size = 0;
+            long writeNanos = Long.MAX_VALUE;
+            long readNanos = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run += 1) {
+                long start = System.nanoTime();
+                for (int i = 0; i < encoded.length; i += 1) {
+                    encoded[i] = Codec.encode(samples.get(i), codec, dict);
+                }
+                writeNanos = Math.min(writeNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (int i = 0; i < encoded.length; i += 1) {
+                    if (!Arrays.equals(Codec.decode(encoded[i], dict),
+                            samples.get(i))) {
+                        throw Utils.error("Codec %s corrupted a sample.",
+                                names[codec]);
+                    }
+                }
+                readNanos = Math.min(readNanos, System.nanoTime() - start);
+            }
+            for (byte[] e : encoded) {
+                size += e.length;
+            }
+            System.out.printf("%-14s %12d %7.3f %12.1f %12.1f%n",
+                    names[codec], size, (double) size / Math.max(1, total),
+                    total / MB / (writeNanos / 1e9),
+                    total / MB / (readNanos / 1e9));
+        }
+    }
+
+    /**
+     * The fields of a commit, stored the way commits were before the
+     * binary format: with Java serialization.
+     */
+    private static class SerializedCommit implements Serializable {
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Commit message.
+         */
+        private String message;
+        /**
+         * Commit time.
+         */
+        private String time;
+        /**
+         * Tree id.
+         */
+        private String tree;
+        /**
+         * Parent ids.
+         */
+        private ArrayList<String> parents;
+        /**
+         * Commit id.
+         */
+        private String id;
+    }
+
+    /**
+     * Compares decoding NUMCOMMITS commits from the binary commit format
+     * and from Java serialization.
+     * @param numCommits history length
+     */
+    static void commits(int numCommits) {
+        List<byte[]> binary = new ArrayList<>();
+        List<byte[]> serialized = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        String parent = null;
+        for (int i = 0; i < numCommits; i += 1) {
+            ArrayList<String> parents = new ArrayList<>();
+            if (parent != null) {
+                parents.add(parent);
+            }
+            Commit commit = new Commit("commit " + i, parents,
+                    Utils.sha1("tree " + i));
+            binary.add(commit.getBytes());
+            ids.add(commit.getID());
+            SerializedCommit old = new SerializedCommit();
+            old.message = commit.getMessage();
+            old.time = commit.getTime();
+            old.tree = commit.getTree();
+            old.parents = parents;
+            old.id = commit.getID();
+            serialized.add(Utils.serialize(old));
+            parent = commit.getID();
+        }
+        long binaryNanos = Long.MAX_VALUE;
+        long serialNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < numCommits; i += 1) {
+                Commit.decode(ids.get(i), binary.get(i));
+            }
+            binaryNanos = Math.min(binaryNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (byte[] bytes : serialized) {
+                Utils.deserialize(bytes, SerializedCommit.class);
+            }
+            serialNanos = Math.min(serialNanos, System.nanoTime() - start);
+        }
+        System.out.printf("%d commits%n", numCommits);
+        System.out.printf("%-14s %12s %14s%n",
+                "format", "bytes/commit", "us/commit");
+        System.out.printf("%-14s %12d %14.2f%n", "binary",
+                size(binary) / numCommits, binaryNanos / 1e3 / numCommits);
+        System.out.printf("%-14s %12d %14.2f%n", "serialized",
+                size(serialized) / numCommits, serialNanos / 1e3 / numCommits);
+        System.out.printf("binary decodes %.2fx faster%n",
+                (double) serialNanos / binaryNanos);
+    }
+
+    /**
+     * Returns the total length of ARRAYS.
+     * @param arrays byte arrays
+     * @return total length
+     */
+    private static long size(List<byte[]> arrays) {
+        long total = 0;
+        for (byte[] a : arrays) {
+            total += a.length;
+        }
+        return total;
+    }
+
+    /**
+     * Adds the contents of every plain file under DIR, outside .gitlet
+     * directories, to SAMPLES.
+     * @param dir directory
+     * @param samples file contents
+     */
+    private static void collect(File dir, List<byte[]> samples) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory() && !f.getName().equals(".gitlet")) {
+                collect(f, samples);
+            } else if (f.isFile()) {
+                samples.add(Utils.readContents(f));
+            }
+        }
+    }
+}
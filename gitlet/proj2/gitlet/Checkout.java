@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes many files into the working directory at once. Every file is
+ * first written in full to a temporary file beside it, on a pool of
+ * threads, so the writes overlap and keep the disk busy. Only once all
+ * of them are written are they renamed over their files, each in one
+ * step, and the files to delete deleted. If any write fails, the
+ * temporary files are removed and the working directory is left as it
+ * was. If a rename fails, the files renamed before it keep their new
+ * contents, the rest keep their old ones and no file is deleted; either
+ * way no temporary file is left behind and no file is ever seen half
+ * written.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Checkout {
+
+    /**
+     * Writes each blob of FILES (file name to blob id) to its file under
+     * ROOT in MODE and deletes the files DELETED, using THREADS threads.
+     * Returns the stat data of each file written.
+     * @param root working directory
+     * @param files file name to blob id
+     * @param deleted file names to delete
+     * @param mode COPY, TRANSFER or LINK
+     * @param threads most threads used
+     * @return file name to size, modification time and inode
+     */
+    static Map<String, long[]> apply(File root, Map<String, String> files,
+                                     Collection<String> deleted,
+                                     String mode, int threads) {
+        List<String> names = new ArrayList<>(files.keySet());
+        List<Callable<File>> writes = new ArrayList<>(names.size());
+        for (String name : names) {
+            File file = new File(root, name);
+            String id = files.get(name);
+            writes.add(() -> ObjectStore.stageBlob(id, file, mode));
+        }
+        List<File> staged = stageAll(writes, threads);
+        Map<String, long[]> stats = new HashMap<>();
+        for (int i = 0; i < names.size(); i += 1) {
+            /* a rename keeps the size, time and inode of what it moves*/
+            stats.put(names.get(i), StatCache.stat(staged.get(i)));
+        }
+        int installed = 0;
+        try {
+            for (; installed < names.size(); installed += 1) {
+                ObjectStore.installBlob(staged.get(installed),
+                        new File(root, names.get(installed)));
+            }
+        } finally {
+            for (int i = installed; i < names.size(); i += 1) {
+                staged.get(i).delete();
+            }
+        }
+        for (String name : deleted) {
+            WorkTree.delete(root, name);
+        }
+        return stats;
+    }
+
+    /**
+     * Runs WRITES on THREADS threads and returns the temporary files
+     * they made, in order. If one fails, every temporary file made is
+     * removed and its error is thrown.
+     * @param writes tasks that each write one temporary file
+     * @param threads most threads used
+     * @return temporary files
+     */
+    private static List<File> stageAll(List<Callable<File>> writes,
+                                       int threads) {
+        if (writes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(threads, writes.size()));
+        List<Future<File>> results = new ArrayList<>();
+        try {
+            for (Callable<File> write : writes) {
+                results.add(pool.submit(write));
+            }
+            List<File> staged = new ArrayList<>(results.size());
+            RuntimeException failure = null;
+            for (Future<File> result : results) {
+                try {
+                    staged.add(result.get());
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalArgumentException(e.getCause());
+                    staged.add(null);
+                } catch (InterruptedException e) {
+                    failure = new IllegalArgumentException(e);
+                    staged.add(null);
+                }
+            }
+            if (failure != null) {
+                for (File tmp : staged) {
+                    if (tmp != null) {
+                        tmp.delete();
+                    }
+                }
+                throw failure;
+            }
+            return staged;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses stored objects. Every object is written with the codec that
+ * makes it smallest: STORED (the raw bytes), DEFLATE, or DEFLATE_DICT
+ * (deflate primed with a dictionary trained on the repository). All but
+ * plain stored objects begin with a header naming the codec, the
+ * uncompressed length and, for DEFLATE_DICT, the dictionary id.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Codec {
+
+    /**
+     * Codec for objects kept as they are.
+     */
+    static final int STORED = 0;
+    /**
+     * Codec for deflated objects.
+     */
+    static final int DEFLATE = 1;
+    /**
+     * Codec for objects deflated with a preset dictionary.
+     */
+    static final int DEFLATE_DICT = 2;
+    /**
+     * Number of codecs.
+     */
+    static final int CODECS = 3;
+    /**
+     * Marks the start of an object header. Stored objects that do not
+     * begin with these bytes are written without a header.
+     */
+    static final String MAGIC = "\0GLO";
+    /**
+     * Longest header of a STORED object: magic, codec and a varint.
+     */
+    static final int MAX_HEADER = 4 + 1 + 10;
+    /**
+     * Largest useful dictionary: the deflate window.
+     */
+    static final int MAX_DICT = 32 * 1024;
+
+    /**
+     * Objects larger than this are not tried with the dictionary, which
+     * only pays off near the start of a stream.
+     */
+    private static final int DICT_LIMIT = 64 * 1024;
+    /**
+     * Length of the strings counted when training a dictionary.
+     */
+    private static final int SEGMENT = 16;
+    /**
+     * Length of a raw SHA-1 id.
+     */
+    private static final int ID_BYTES = 20;
+
+    /**
+     * Returns DATA encoded with whichever codec makes it smallest. DICT
+     * is the repository dictionary, or null if there is none.
+     * @param data object contents
+     * @param dict dictionary or null
+     * @return encoded object
+     */
+    static byte[] encode(byte[] data, byte[] dict) {
+        byte[] best = encode(data, DEFLATE, null);
+        if (dict != null && data.length <= DICT_LIMIT) {
+            byte[] withDict = encode(data, DEFLATE_DICT, dict);
+            if (withDict.length < best.length) {
+                best = withDict;
+            }
+        }
+        if (best.length >= data.length) {
+            return encode(data, STORED, null);
+        }
+        return best;
+    }
+
+    /**
+     * Returns DATA encoded with CODEC, using DICT for DEFLATE_DICT.
+     * @param data object contents
+     * @param codec STORED, DEFLATE or DEFLATE_DICT
+     * @param dict dictionary or null
+     * @return encoded object
+     */
+    static byte[] encode(byte[] data, int codec, byte[] dict) {
+        if (codec == STORED && !hasMagic(data)) {
+            return data;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            out.write(MAGIC.getBytes(StandardCharsets.ISO_8859_1));
+            out.write(codec);
+            Utils.writeVarint(out, data.length);
+            if (codec == DEFLATE_DICT) {
+                out.write(Utils.hexToBytes(Utils.sha1(dict)));
+            }
+            if (codec == STORED) {
+                out.write(data);
+            } else if (codec == DEFLATE) {
+                out.write(deflate(data, null));
+            } else {
+                out.write(deflate(data, dict));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the header of a STORED or DEFLATE object of LENGTH bytes to
+     * OUT and returns a stream that encodes what is written to it into
+     * OUT. Closing the stream finishes the object and closes OUT. Objects
+     * too large to hold in memory are encoded this way.
+     * @param out destination of the encoded object
+     * @param codec STORED or DEFLATE
+     * @param length uncompressed length
+     * @return encoding stream
+     */
+    static OutputStream encoder(OutputStream out, int codec, long length)
+            throws IOException {
+        out.write(MAGIC.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(codec);
+        Utils.writeVarint(out, length);
+        if (codec == STORED) {
+            return out;
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        return new DeflaterOutputStream(out, deflater) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                deflater.end();
+            }
+        };
+    }
+
+    /**
+     * Returns the contents of the encoded object BYTES.
+     * @param bytes encoded object
+     * @return object contents
+     */
+    static byte[] decode(byte[] bytes) {
+        return decode(bytes, null);
+    }
+
+    /**
+     * Returns the contents of the encoded object BYTES, using DICT for
+     * DEFLATE_DICT objects if it is not null.
+     * @param bytes encoded object
+     * @param dict dictionary or null
+     * @return object contents
+     */
+    static byte[] decode(byte[] bytes, byte[] dict) {
+        try (InputStream in = open(new ByteArrayInputStream(bytes), dict)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns a read-only view of the contents of the encoded object
+     * ENCODED if it is stored uncompressed, sharing ENCODED's memory, or
+     * null if it is compressed.
+     * @param encoded encoded object
+     * @return contents or null
+     */
+    static ByteBuffer view(ByteBuffer encoded) {
+        int start = storedOffset(encoded);
+        if (start < 0) {
+            return null;
+        }
+        ByteBuffer in = encoded.asReadOnlyBuffer();
+        in.position(in.position() + start);
+        return in.slice();
+    }
+
+    /**
+     * Returns where the contents begin in an encoded object whose first
+     * bytes are HEAD (at least MAX_HEADER of them, if the object is that
+     * long): 0 for a bare object, the header length for a STORED one, or
+     * -1 if it is compressed.
+     * @param head start of an encoded object
+     * @return offset of the contents or -1
+     */
+    static int storedOffset(ByteBuffer head) {
+        ByteBuffer in = head.duplicate();
+        if (!hasMagic(in)) {
+            return 0;
+        }
+        in.position(in.position() + MAGIC.length());
+        if (in.get() != STORED) {
+            return -1;
+        }
+        Utils.readVarint(in);
+        return in.position() - head.position();
+    }
+
+    /**
+     * Returns the contents of the encoded object ENCODED, inflating it
+     * straight from the buffer into an array of the recorded length.
+     * @param encoded encoded object
+     * @return object contents
+     */
+    static byte[] decode(ByteBuffer encoded) {
+        ByteBuffer stored = view(encoded);
+        if (stored != null) {
+            byte[] data = new byte[stored.remaining()];
+            stored.get(data);
+            return data;
+        }
+        ByteBuffer in = encoded.duplicate();
+        in.position(in.position() + MAGIC.length());
+        int codec = in.get();
+        byte[] data = new byte[(int) Utils.readVarint(in)];
+        Inflater inflater = new Inflater(true);
+        try {
+            if (codec == DEFLATE_DICT) {
+                byte[] id = new byte[ID_BYTES];
+                in.get(id);
+                inflater.setDictionary(
+                        readDictionary(Utils.bytesToHex(id, 0, ID_BYTES)));
+            } else if (codec != DEFLATE) {
+                throw Utils.error("Unknown object codec %d.", codec);
+            }
+            inflater.setInput(in);
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int got = inflater.inflate(data, n, data.length - n);
+                if (got == 0 && (inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    throw Utils.error("Object is truncated.");
+                }
+                n += got;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Returns a stream of the contents of the encoded object read from
+     * RAW, decompressing as it goes.
+     * @param raw encoded object
+     * @return decoded stream
+     */
+    static InputStream open(InputStream raw) throws IOException {
+        return open(raw, null);
+    }
+
+    /**
+     * Returns a stream of the contents of the encoded object read from
+     * RAW, decompressing as it goes. DEFLATE_DICT objects use DICT if it
+     * is not null, or else the repository dictionary they name.
+     * @param raw encoded object
+     * @param dict dictionary or null
+     * @return decoded stream
+     */
+    static InputStream open(InputStream raw, byte[] dict) throws IOException {
+        InputStream in = new BufferedInputStream(raw);
+        byte[] magic = MAGIC.getBytes(StandardCharsets.ISO_8859_1);
+        in.mark(magic.length);
+        byte[] start = in.readNBytes(magic.length);
+        if (!Arrays.equals(start, magic)) {
+            in.reset();
+            return in;
+        }
+        int codec = in.read();
+        Utils.readVarint(in);
+        if (codec == STORED) {
+            return in;
+        }
+        Inflater inflater = new Inflater(true);
+        if (codec == DEFLATE_DICT) {
+            byte[] id = in.readNBytes(ID_BYTES);
+            if (dict == null) {
+                dict = readDictionary(Utils.bytesToHex(id, 0, ID_BYTES));
+            }
+            inflater.setDictionary(dict);
+        } else if (codec != DEFLATE) {
+            throw Utils.error("Unknown object codec %d.", codec);
+        }
+        return new InflaterInputStream(in, inflater) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * Returns DATA deflated without a zlib wrapper, primed with DICT if it
+     * is not null.
+     * @param data bytes to compress
+     * @param dict dictionary or null
+     * @return compressed bytes
+     */
+    private static byte[] deflate(byte[] data, byte[] dict) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        if (dict != null) {
+            deflater.setDictionary(dict);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns whether the remaining bytes of BUF begin with the header
+     * magic.
+     * @param buf bytes
+     * @return if BUF starts with MAGIC
+     */
+    private static boolean hasMagic(ByteBuffer buf) {
+        if (buf.remaining() < MAGIC.length()) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length(); i += 1) {
+            if (buf.get(buf.position() + i) != MAGIC.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether DATA begins with the header magic, in which case
+     * it cannot be stored bare.
+     * @param data bytes
+     * @return if DATA starts with MAGIC
+     */
+    static boolean hasMagic(byte[] data) {
+        if (data.length < MAGIC.length()) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length(); i += 1) {
+            if (data[i] != MAGIC.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a dictionary of at most MAX_DICT bytes built from SAMPLES.
+     * The dictionary is made of the SEGMENT-byte strings that occur in the
+     * most samples, most common last so deflate reaches them with the
+     * shortest distances.
+     * @param samples object contents
+     * @return dictionary, or null if the samples share nothing
+     */
+    static byte[] train(List<byte[]> samples) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            HashSet<String> seen = new HashSet<>();
+            for (int i = 0; i + SEGMENT <= sample.length; i += SEGMENT / 2) {
+                String segment = new String(sample, i, SEGMENT,
+                        StandardCharsets.ISO_8859_1);
+                if (seen.add(segment)) {
+                    counts.merge(segment, 1, Integer::sum);
+                }
+            }
+        }
+        List<String> common = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            if (e.getValue() > 1) {
+                common.add(e.getKey());
+            }
+        }
+        if (common.isEmpty()) {
+            return null;
+        }
+        common.sort((a, b) -> counts.get(b) - counts.get(a));
+        int n = Math.min(common.size(), MAX_DICT / SEGMENT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = n - 1; i >= 0; i -= 1) {
+            out.writeBytes(common.get(i).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Saves DICT as the dictionary used for new objects.
+     * @param dict dictionary
+     */
+    static void saveDictionary(byte[] dict) {
+        Repository.DICTS.mkdirs();
+        String id = Utils.sha1(dict);
+        Utils.writeContents(Utils.join(Repository.DICTS, id), dict);
+        Utils.writeContents(Utils.join(Repository.DICTS, "CURRENT"), id);
+    }
+
+    /**
+     * Returns the dictionary used for new objects, or null if none has
+     * been trained.
+     * @return dictionary or null
+     */
+    static byte[] currentDictionary() {
+        File current = Utils.join(Repository.DICTS, "CURRENT");
+        if (!current.isFile()) {
+            return null;
+        }
+        return readDictionary(Utils.readContentsAsString(current));
+    }
+
+    /**
+     * Returns the dictionary with the given ID.
+     * @param id dictionary id
+     * @return dictionary
+     */
+    private static byte[] readDictionary(String id) {
+        File dict = Utils.join(Repository.DICTS, id);
+        if (!dict.isFile()) {
+            throw Utils.error("Missing compression dictionary %s.", id);
+        }
+        return Utils.readContents(dict);
+    }
+}
@@ -1,6 +1,11 @@
 package gitlet;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -9,10 +14,16 @@ import java.util.HashMap;
 /**
  * Represents a gitlet commit object.
  *  does at a high level.
+ * <p>
+ * Commits are stored in a versioned binary format: a version byte, the
+ * message and time as length-prefixed UTF-8, the parent ids, and the id
+ * of the tree holding the snapshot. The id is the SHA-1 of exactly those
+ * bytes, computed while they are written. Commits Java-serialized by
+ * the first versions of gitlet are still read.
  *
  * @author Swetha Karthikeyan
  */
-public class Commit implements Serializable {
+public class Commit {
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -20,6 +31,15 @@ public class Commit implements Serializable {
      * variable is used. We've provided one example for `message`.
      */
 
+    /**
+     * Version of the binary commit format.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Length of a raw SHA-1 id.
+     */
+    private static final int UID_BYTES = Utils.UID_LENGTH / 2;
+
     /**
      * The message of this Commit.
      */
@@ -29,9 +49,15 @@ public class Commit implements Serializable {
      */
     private final String time;
     /**
-     * Hashmap of blobs (name and blob id) in this Commit.
+     * Id of the tree of blobs (name and blob id) in this Commit. Volatile,
+     * like blobmap, since a cached Commit is shared between threads.
+     */
+    private volatile String tree;
+    /**
+     * Hashmap of blobs (name and blob id) in this Commit, read from the
+     * tree when first needed.
      */
-    private final HashMap<String, String> blobmap;
+    private volatile HashMap<String, String> blobmap;
     /**
      * The parent id of this Commit.
      */
@@ -40,37 +66,92 @@ public class Commit implements Serializable {
      * The id of this Commit.
      */
     private final String id;
+    /**
+     * The encoded commit, kept from hashing until it is saved.
+     */
+    private byte[] encoded;
 
 
+    /**
+     * The fields of a commit as the first versions of gitlet stored it,
+     * with Java serialization. Its id was the SHA-1 of those bytes, so
+     * the file name is kept as its id.
+     */
+    private static class Serialized implements Serializable {
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Commit message.
+         */
+        private String message;
+        /**
+         * Commit time.
+         */
+        private String time;
+        /**
+         * File name to blob id.
+         */
+        private HashMap<String, String> blobmap;
+        /**
+         * Parent ids.
+         */
+        private ArrayList<String> parents;
+        /**
+         * Commit id.
+         */
+        private String id;
+    }
+
     /**
      * Empty Commit constructor.
      */
     public Commit() {
         blobmap = new HashMap<String, String>();
+        tree = Tree.write(blobmap);
         parents = new ArrayList<>();
         message = "initial commit";
         time = new SimpleDateFormat("EEE MMM d HH:mm:ss "
                 + "yyyy Z").format(new Date(0));
-        id = Utils.sha1(Utils.serialize(this));
+        id = encode();
     }
 
     /**
      * Commit constructor with instance variables.
      * @param m string
      * @param p string
-     * @param bm hashmap
+     * @param t tree id
      */
-    public Commit(String m, ArrayList<String> p,
-                  HashMap<String, String> bm) {
-        blobmap = bm;
+    public Commit(String m, ArrayList<String> p, String t) {
+        tree = t;
         parents = p;
         message = m;
         time = new SimpleDateFormat("EEE MMM d HH:mm:ss "
                 + "yyyy Z").format(new Date());
-        id = Utils.sha1(Utils.serialize(this));
+        id = encode();
 
     }
 
+    /**
+     * Commit constructor for a decoded commit.
+     * @param i string
+     * @param m string
+     * @param t string
+     * @param p arraylist
+     * @param tr tree id, or null for the first format
+     * @param bm hashmap, or null to read it from the tree
+     */
+    private Commit(String i, String m, String t, ArrayList<String> p,
+                   String tr, HashMap<String, String> bm) {
+        id = i;
+        message = m;
+        time = t;
+        parents = p;
+        tree = tr;
+        blobmap = bm;
+    }
+
 
     /**
      * Reads the Commit object from commits file.
@@ -78,8 +159,64 @@ public class Commit implements Serializable {
      * @return commitFile
      */
     public static Commit readCommit(String id) {
-        File commitFile = Utils.join(Repository.COMMITS, id);
-        return Utils.readObject(commitFile, Commit.class);
+        return decode(id, ObjectStore.readCommit(id));
+    }
+
+    /**
+     * Decodes the commit with the given ID from its stored BYTES.
+     * @param id string
+     * @param bytes encoded commit
+     * @return commit
+     */
+    public static Commit decode(String id, byte[] bytes) {
+        if (Utils.isSerialized(bytes)) {
+            Serialized old = Utils.deserializeLegacy(bytes,
+                    Commit.class.getName(), Serialized.class);
+            return new Commit(id, old.message, old.time, old.parents,
+                    null, old.blobmap);
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            int version = in.get();
+            if (version != VERSION) {
+                throw Utils.error("Unknown commit format %d.", version);
+            }
+            String m = Utils.readString(in);
+            String t = Utils.readString(in);
+            int numParents = (int) Utils.readVarint(in);
+            ArrayList<String> p = new ArrayList<>(numParents);
+            for (int i = 0; i < numParents; i += 1) {
+                p.add(Utils.readId(in));
+            }
+            return new Commit(id, m, t, p, Utils.readId(in), null);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw Utils.error("Commit %s is truncated.", id);
+        }
+    }
+
+    /**
+     * Encodes this commit into the encoded bytes and returns their
+     * SHA-1, computed in the same pass.
+     * @return commit id
+     */
+    private String encode() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DigestOutputStream out = new DigestOutputStream(bytes, md);
+            out.write(VERSION);
+            Utils.writeString(out, message);
+            Utils.writeString(out, time);
+            Utils.writeVarint(out, parents.size());
+            for (String parent : parents) {
+                Utils.writeId(out, parent);
+            }
+            Utils.writeId(out, tree);
+            encoded = bytes.toByteArray();
+            return Utils.bytesToHex(md.digest(), 0, UID_BYTES);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 
     /**
@@ -91,21 +228,22 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Turns the commit object to file with fileoutput stream
-     * and object output stream with commit content, saves to file.
+     * Saves the encoded commit, compressed, to the commits directory.
      */
     public void save() {
-        File newCommit = Utils.join(Repository.COMMITS, id);
-        try {
-            FileOutputStream newC = new FileOutputStream(newCommit);
-            ObjectOutputStream newCObject = new ObjectOutputStream(newC);
-            newCObject.writeObject(this);
-            newCObject.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        ObjectStore.writeCommit(id, getBytes());
+        encoded = null;
+    }
+
+    /**
+     * Returns the commit in the binary commit format.
+     * @return encoded commit
+     */
+    byte[] getBytes() {
+        if (encoded == null) {
+            encode();
         }
+        return encoded;
     }
 
     /**
@@ -125,13 +263,42 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Returns the Commit blobmap.
+     * Returns the Commit blobmap. Reads the whole tree, so callers that
+     * need only a few files should use getBlob or compare trees instead.
      * @return commit blobmap
      */
     public HashMap<String, String> getMap() {
+        if (blobmap == null) {
+            blobmap = Tree.read(tree);
+        }
         return blobmap;
     }
 
+    /**
+     * Returns the blob id of the file NAME in this Commit, or null if it
+     * is not tracked. Only the tree nodes on the way to NAME are read.
+     * @param name file name
+     * @return blob id or null
+     */
+    public String getBlob(String name) {
+        if (blobmap != null) {
+            return blobmap.get(name);
+        }
+        return Tree.lookup(tree, name);
+    }
+
+    /**
+     * Returns the id of the tree of this Commit, writing it first for a
+     * commit of the first format.
+     * @return tree id
+     */
+    public String getTree() {
+        if (tree == null) {
+            tree = Tree.write(blobmap);
+        }
+        return tree;
+    }
+
     /**
      * Returns the Commit parent id.
      * @return commit parent id
@@ -142,4 +309,3 @@ public class Commit implements Serializable {
 
 
 }
-
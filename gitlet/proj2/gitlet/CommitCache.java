@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded commits kept in memory, so reading the same commit again in
+ * one command, or in later commands run by the same process, does not
+ * touch the disk. At most a fixed number of commits are kept; the one
+ * used least recently is dropped to make room. Commits are decoded
+ * outside the lock, so threads reading different commits do not wait
+ * for each other, and are never changed once stored, so one copy can be
+ * shared by every thread.
+ *
+ * @author Swetha Karthikeyan
+ */
+class CommitCache {
+
+    /**
+     * Cached commits by id, least recently used first.
+     */
+    private final LinkedHashMap<String, Commit> commits;
+    /**
+     * Number of reads answered from memory.
+     */
+    private long hits;
+    /**
+     * Number of reads that decoded the commit.
+     */
+    private long misses;
+
+    /**
+     * CommitCache constructor.
+     * @param capacity most commits kept
+     */
+    CommitCache(int capacity) {
+        commits = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Commit> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the commit ID, decoding it if it is not cached.
+     * @param id commit id
+     * @return commit
+     */
+    Commit get(String id) {
+        synchronized (this) {
+            Commit cached = commits.get(id);
+            if (cached != null) {
+                hits += 1;
+                return cached;
+            }
+            misses += 1;
+        }
+        Commit commit = Commit.readCommit(id);
+        put(commit);
+        return commit;
+    }
+
+    /**
+     * Caches COMMIT, such as one just made.
+     * @param commit commit
+     */
+    synchronized void put(Commit commit) {
+        commits.put(commit.getID(), commit);
+    }
+
+    /**
+     * Returns how many reads were answered from memory.
+     * @return hit count
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns how many reads had to decode the commit.
+     * @return miss count
+     */
+    synchronized long misses() {
+        return misses;
+    }
+}
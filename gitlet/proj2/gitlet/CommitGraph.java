@@ -0,0 +1,318 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The shape of the commit history, kept apart from the commits so that
+ * walking it reads one small file instead of decoding every commit. Each
+ * commit has a fixed-width record holding its id, the record numbers of
+ * its parents, its generation number (one more than the largest of its
+ * parents', so every ancestor of a commit has a smaller generation) and
+ * its time in seconds. Records are appended as commits are made, parents
+ * always before children. Commits missing from the file, such as those of
+ * a repository made before it existed, are added the first time they are
+ * looked up.
+ *
+ * @author Swetha Karthikeyan
+ */
+class CommitGraph {
+
+    /**
+     * First bytes of the graph file.
+     */
+    private static final String MAGIC = "GGRF";
+    /**
+     * Format version of the graph file.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Length of the header: magic, version and record count.
+     */
+    private static final int HEADER = 12;
+    /**
+     * Offset of the record count in the header.
+     */
+    private static final int COUNT_OFFSET = 8;
+    /**
+     * Length of a raw SHA-1 id.
+     */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Length of a record: id, two parents, generation and time.
+     */
+    private static final int RECORD = ID_BYTES + 4 + 4 + 4 + 8;
+    /**
+     * Parent record number meaning there is no such parent.
+     */
+    static final int NONE = -1;
+
+    /**
+     * The graph file.
+     */
+    private final File file;
+    /**
+     * Number of records.
+     */
+    private int count;
+    /**
+     * Commit id of each record.
+     */
+    private String[] ids;
+    /**
+     * First parent of each record, or NONE.
+     */
+    private int[] firstParents;
+    /**
+     * Second parent of each record, or NONE.
+     */
+    private int[] secondParents;
+    /**
+     * Generation number of each record.
+     */
+    private int[] generations;
+    /**
+     * Commit time of each record, in seconds since the epoch.
+     */
+    private long[] times;
+    /**
+     * Record number of each commit id, or null until the file is read.
+     */
+    private HashMap<String, Integer> index;
+
+    /**
+     * CommitGraph constructor. Nothing is read until the first lookup.
+     * @param f graph file
+     */
+    CommitGraph(File f) {
+        file = f;
+    }
+
+    /**
+     * Returns the record number of the commit ID, adding it and any of
+     * its ancestors that are missing.
+     * @param id commit id
+     * @return record number
+     */
+    int indexOf(String id) {
+        load();
+        Integer i = index.get(id);
+        if (i != null) {
+            return i;
+        }
+        /* add missing ancestors first, without recursing down history*/
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.push(id);
+        while (!todo.isEmpty()) {
+            String next = todo.peek();
+            if (index.containsKey(next)) {
+                todo.pop();
+                continue;
+            }
+            Commit commit = Commit.readCommit(next);
+            boolean ready = true;
+            for (String parent : commit.getParents()) {
+                if (!index.containsKey(parent)) {
+                    todo.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                todo.pop();
+                add(commit);
+            }
+        }
+        return index.get(id);
+    }
+
+    /**
+     * Appends the record of COMMIT, whose parents must already be in the
+     * graph, unless it is there already.
+     * @param commit new commit
+     */
+    void add(Commit commit) {
+        load();
+        if (index.containsKey(commit.getID())) {
+            return;
+        }
+        int first = NONE;
+        int second = NONE;
+        int generation = 1;
+        for (String parent : commit.getParents()) {
+            int p = indexOf(parent);
+            if (first == NONE) {
+                first = p;
+            } else {
+                second = p;
+            }
+            generation = Math.max(generation, generations[p] + 1);
+        }
+        append(commit.getID(), first, second, generation,
+                seconds(commit.getTime()));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeRecord(out, count - 1);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < HEADER) {
+                raf.writeBytes(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(0);
+            }
+            raf.seek(HEADER + (long) (count - 1) * RECORD);
+            raf.write(bytes.toByteArray());
+            raf.seek(COUNT_OFFSET);
+            raf.writeInt(count);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the commit id of record I.
+     * @param i record number
+     * @return commit id
+     */
+    String id(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Returns the first parent of record I, or NONE.
+     * @param i record number
+     * @return parent record number
+     */
+    int firstParent(int i) {
+        return firstParents[i];
+    }
+
+    /**
+     * Returns the second parent of record I, or NONE.
+     * @param i record number
+     * @return parent record number
+     */
+    int secondParent(int i) {
+        return secondParents[i];
+    }
+
+    /**
+     * Returns the generation number of record I.
+     * @param i record number
+     * @return generation
+     */
+    int generation(int i) {
+        return generations[i];
+    }
+
+    /**
+     * Returns the commit time of record I in seconds since the epoch.
+     * @param i record number
+     * @return time
+     */
+    long time(int i) {
+        return times[i];
+    }
+
+    /**
+     * Reads the graph file, if it has not been read yet.
+     */
+    private void load() {
+        if (index != null) {
+            return;
+        }
+        index = new HashMap<>();
+        ids = new String[16];
+        firstParents = new int[16];
+        secondParents = new int[16];
+        generations = new int[16];
+        times = new long[16];
+        if (!file.isFile()) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(file));
+        byte[] magic = new byte[MAGIC.length()];
+        if (in.remaining() < HEADER) {
+            return;
+        }
+        in.get(magic);
+        if (!MAGIC.equals(new String(magic, StandardCharsets.ISO_8859_1))
+                || in.getInt() != VERSION) {
+            throw Utils.error("Unknown commit-graph format.");
+        }
+        /* a record written without its count update is ignored*/
+        int records = Math.min(in.getInt(), in.remaining() / RECORD);
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < records; i += 1) {
+            in.get(id);
+            append(Utils.bytesToHex(id, 0, ID_BYTES), in.getInt(),
+                    in.getInt(), in.getInt(), in.getLong());
+        }
+    }
+
+    /**
+     * Adds a record to memory.
+     * @param id commit id
+     * @param first first parent or NONE
+     * @param second second parent or NONE
+     * @param generation generation number
+     * @param time commit time in seconds
+     */
+    private void append(String id, int first, int second, int generation,
+                        long time) {
+        if (count == ids.length) {
+            int size = 2 * count;
+            ids = Arrays.copyOf(ids, size);
+            firstParents = Arrays.copyOf(firstParents, size);
+            secondParents = Arrays.copyOf(secondParents, size);
+            generations = Arrays.copyOf(generations, size);
+            times = Arrays.copyOf(times, size);
+        }
+        ids[count] = id;
+        firstParents[count] = first;
+        secondParents[count] = second;
+        generations[count] = generation;
+        times[count] = time;
+        index.put(id, count);
+        count += 1;
+    }
+
+    /**
+     * Writes record I to OUT.
+     * @param out destination
+     * @param i record number
+     */
+    private void writeRecord(DataOutputStream out, int i)
+            throws IOException {
+        out.write(Utils.hexToBytes(ids[i]));
+        out.writeInt(firstParents[i]);
+        out.writeInt(secondParents[i]);
+        out.writeInt(generations[i]);
+        out.writeLong(times[i]);
+    }
+
+    /**
+     * Returns the formatted commit time TIME in seconds since the epoch.
+     * @param time commit time as shown by log
+     * @return seconds
+     */
+    private static long seconds(String time) {
+        try {
+            return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z")
+                    .parse(time).getTime() / 1000;
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * Resolves abbreviated commit ids. Every commit id is kept in a sorted
+ * file of raw ids behind a fan-out table counting the ids up to each
+ * first byte, so the ids starting with a prefix are found by a binary
+ * search of the memory-mapped file. New ids are appended to a small log
+ * that is merged into the sorted file once it grows long. An index that
+ * does not exist yet is built from the object store, and an id that the
+ * index cannot resolve is looked up in the object store and added, so a
+ * commit whose index update was cut short is still found.
+ *
+ * @author Swetha Karthikeyan
+ */
+class CommitIndex {
+
+    /**
+     * First bytes of the sorted file.
+     */
+    private static final String MAGIC = "GCID";
+    /**
+     * Format version of the sorted file.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Number of fan-out slots, one per possible first id byte.
+     */
+    private static final int FANOUT = 256;
+    /**
+     * Offset of the first id in the sorted file.
+     */
+    private static final int HEADER = 4 + 4 + 4 * FANOUT;
+    /**
+     * Length of a raw SHA-1 id.
+     */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Ids the log may hold before it is merged into the sorted file.
+     */
+    private static final int LOG_LIMIT = 256;
+
+    /**
+     * The sorted file.
+     */
+    private final File sortedFile;
+    /**
+     * The log of ids added since the sorted file was written.
+     */
+    private final File logFile;
+    /**
+     * The mapped sorted file, or null until first used.
+     */
+    private ByteBuffer sorted;
+    /**
+     * Ids in the log, or null until first used.
+     */
+    private List<String> logged;
+
+    /**
+     * CommitIndex constructor. Nothing is read until the first lookup.
+     * @param file sorted file
+     * @param log log file
+     */
+    CommitIndex(File file, File log) {
+        sortedFile = file;
+        logFile = log;
+    }
+
+    /**
+     * Returns every commit id that starts with PREFIX, in sorted order.
+     * @param prefix abbreviated commit id
+     * @return matching commit ids
+     */
+    List<String> resolve(String prefix) {
+        String lower = prefix.toLowerCase();
+        if (lower.length() > Utils.UID_LENGTH
+                || !lower.matches("[0-9a-f]*")) {
+            return new ArrayList<>();
+        }
+        load();
+        TreeSet<String> result = new TreeSet<>(search(lower));
+        for (String id : logged) {
+            if (id.startsWith(lower)) {
+                result.add(id);
+            }
+        }
+        if (result.isEmpty()) {
+            for (String id : ObjectStore.findCommits(lower)) {
+                add(id);
+                result.add(id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Records the new commit ID.
+     * @param id commit id
+     */
+    void add(String id) {
+        load();
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(Utils.hexToBytes(id));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        logged.add(id);
+        if (logged.size() >= LOG_LIMIT) {
+            TreeSet<String> all = new TreeSet<>(logged);
+            int count = fanout(FANOUT - 1);
+            for (int i = 0; i < count; i += 1) {
+                all.add(idAt(i));
+            }
+            write(all);
+        }
+    }
+
+    /**
+     * Returns every commit id in sorted order. Ids are read from the
+     * mapped file as they are reached, so only the log is held in memory
+     * however many commits there are.
+     * @return commit ids
+     */
+    Iterator<String> ids() {
+        load();
+        int count = fanout(FANOUT - 1);
+        Iterator<String> more = new TreeSet<>(logged).iterator();
+        return new Iterator<>() {
+            /**
+             * Next id of the sorted file to return.
+             */
+            private int next;
+            /**
+             * Next id of the log to return, or null.
+             */
+            private String pending = more.hasNext() ? more.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return next < count || pending != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String id = next < count ? idAt(next) : null;
+                if (id == null || pending != null
+                        && pending.compareTo(id) < 0) {
+                    id = pending;
+                } else {
+                    next += 1;
+                }
+                if (id.equals(pending)) {
+                    pending = more.hasNext() ? more.next() : null;
+                }
+                return id;
+            }
+        };
+    }
+
+    /**
+     * Maps the sorted file and reads the log, building the sorted file
+     * from every stored commit if it does not exist.
+     */
+    private void load() {
+        if (sorted != null) {
+            return;
+        }
+        if (!sortedFile.isFile()) {
+            write(new TreeSet<>(ObjectStore.commitIds()));
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(sortedFile.toPath(),
+                StandardOpenOption.READ)) {
+            sorted = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        byte[] magic = new byte[MAGIC.length()];
+        sorted.get(0, magic);
+        if (!MAGIC.equals(new String(magic, StandardCharsets.ISO_8859_1))
+                || sorted.getInt(4) != VERSION) {
+            throw Utils.error("Unknown commit index format.");
+        }
+        logged = new ArrayList<>();
+        if (logFile.isFile()) {
+            byte[] raw = Utils.readContents(logFile);
+            for (int i = 0; i + ID_BYTES <= raw.length; i += ID_BYTES) {
+                logged.add(Utils.bytesToHex(raw, i, ID_BYTES));
+            }
+        }
+    }
+
+    /**
+     * Writes IDS as the new sorted file, through a temporary file that is
+     * renamed into place, and empties the log.
+     * @param ids every commit id
+     */
+    private void write(TreeSet<String> ids) {
+        int[] fanout = new int[FANOUT];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int i = 1; i < FANOUT; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+        File tmp = new File(sortedFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeBytes(MAGIC);
+            out.writeInt(VERSION);
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (String id : ids) {
+                out.write(Utils.hexToBytes(id));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        tmp.renameTo(sortedFile);
+        logFile.delete();
+        sorted = null;
+        logged = null;
+        load();
+    }
+
+    /**
+     * Returns the ids in the sorted file that start with PREFIX.
+     * @param prefix lower-case hex prefix
+     * @return matching ids in sorted order
+     */
+    private List<String> search(String prefix) {
+        List<String> result = new ArrayList<>();
+        int firstLow = 0;
+        int firstHigh = FANOUT - 1;
+        if (prefix.length() >= 2) {
+            firstLow = Integer.parseInt(prefix.substring(0, 2), 16);
+            firstHigh = firstLow;
+        } else if (prefix.length() == 1) {
+            firstLow = Character.digit(prefix.charAt(0), 16) * 16;
+            firstHigh = firstLow + 15;
+        }
+        int lo = firstLow == 0 ? 0 : fanout(firstLow - 1);
+        int hi = fanout(firstHigh);
+        /* find the first id not below PREFIX padded with zeros*/
+        String low = prefix + "0".repeat(Utils.UID_LENGTH - prefix.length());
+        byte[] target = Utils.hexToBytes(low);
+        byte[] probe = new byte[ID_BYTES];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            sorted.get(HEADER + mid * ID_BYTES, probe);
+            if (Arrays.compareUnsigned(probe, target) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = fanout(firstHigh);
+        for (int i = lo; i < end; i += 1) {
+            sorted.get(HEADER + i * ID_BYTES, probe);
+            String id = Utils.bytesToHex(probe, 0, ID_BYTES);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    /**
+     * Returns id I of the sorted file.
+     * @param i id number
+     * @return commit id
+     */
+    private String idAt(int i) {
+        byte[] raw = new byte[ID_BYTES];
+        sorted.get(HEADER + i * ID_BYTES, raw);
+        return Utils.bytesToHex(raw, 0, ID_BYTES);
+    }
+
+    /**
+     * Returns how many ids in the sorted file have a first byte of at most
+     * FIRST.
+     * @param first first id byte
+     * @return count
+     */
+    private int fanout(int first) {
+        return sorted.getInt(8 + 4 * first);
+    }
+}
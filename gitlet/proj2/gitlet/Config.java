@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Repository settings, kept in .gitlet/config as one KEY=VALUE per line.
+ * The file is read the first time a setting is needed.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Config {
+
+    /**
+     * The config file.
+     */
+    private final File file;
+    /**
+     * Settings by key, or null until read.
+     */
+    private TreeMap<String, String> values;
+
+    /**
+     * Config constructor.
+     * @param f config file
+     */
+    Config(File f) {
+        file = f;
+    }
+
+    /**
+     * Returns the setting KEY, or DEFAULTVALUE if it is not set.
+     * @param key setting name
+     * @param defaultValue value if unset
+     * @return value
+     */
+    String get(String key, String defaultValue) {
+        return read().getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * Returns the setting KEY as a number, or DEFAULTVALUE if it is not
+     * set or is not a number.
+     * @param key setting name
+     * @param defaultValue value if unset
+     * @return value
+     */
+    int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, "").trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Sets KEY to VALUE and saves the file.
+     * @param key setting name
+     * @param value new value
+     */
+    void set(String key, String value) {
+        read().put(key, value);
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            out.append(e.getKey()).append('=').append(e.getValue())
+                    .append('\n');
+        }
+        Utils.writeContents(file, out.toString());
+    }
+
+    /**
+     * Returns the settings, reading the file if needed.
+     * @return settings by key
+     */
+    private TreeMap<String, String> read() {
+        if (values == null) {
+            values = new TreeMap<>();
+            if (file.isFile()) {
+                for (String line
+                        : Utils.readContentsAsString(file).split("\n")) {
+                    int eq = line.indexOf('=');
+                    if (eq > 0) {
+                        values.put(line.substring(0, eq).trim(),
+                                line.substring(eq + 1).trim());
+                    }
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * A long-lived process that runs gitlet commands for one repository, so
+ * they skip starting a JVM and reading the repository from scratch. It
+ * keeps one Repository, with its staging area, commit cache and indexes
+ * in memory, and listens on .gitlet/daemon.sock. While it runs, Main
+ * sends each command there instead of running it: the operand count and
+ * each operand as a length and UTF-8 bytes, followed for batch - by the
+ * client's standard input. The daemon runs the command with standard
+ * input and output connected to the client, then closes the connection.
+ * Commands run one at a time, in the order they arrive. Before each,
+ * the files the Repository holds in memory are compared with how the
+ * last command left them, and if a command run without the daemon has
+ * changed any, the Repository is read afresh. The socket is
+ * removed when the daemon stops; a socket left by one that was killed
+ * is ignored and replaced.
+ *
+ * gitlet daemon starts one in the foreground, gitlet daemon stop stops
+ * it, and gitlet daemon status reports its commit cache.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Daemon {
+
+    /**
+     * Sends ARGS to the daemon of this repository and copies what it
+     * prints to standard output.
+     * @param args command and operands
+     * @return false if no daemon is running, so the command is not run
+     */
+    static boolean forward(String[] args) {
+        if (!Repository.DAEMON.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(address());
+        } catch (IOException e) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(
+                            channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            if (args.length == 2 && args[0].equals("batch")
+                    && args[1].equals("-")) {
+                System.in.transferTo(out);
+            }
+            out.flush();
+            channel.shutdownOutput();
+            Channels.newInputStream(channel).transferTo(System.out);
+            System.out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Runs commands sent to this repository's socket until told to stop.
+     */
+    static void serve() {
+        if (Repository.DAEMON.exists()) {
+            try {
+                SocketChannel.open(address()).close();
+                System.out.println("A daemon is already running.");
+                return;
+            } catch (IOException e) {
+                /* left behind by a daemon that was killed*/
+                Repository.DAEMON.delete();
+            }
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(
+                StandardProtocolFamily.UNIX)) {
+            server.bind(address());
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread(Repository.DAEMON::delete));
+            Repository repo = new Repository();
+            String seen = Repository.stateStamp();
+            while (repo != null) {
+                try (SocketChannel client = server.accept()) {
+                    if (!seen.equals(Repository.stateStamp())) {
+                        /* a command ran without the daemon since the
+                         * last one; read everything afresh*/
+                        repo = new Repository();
+                    }
+                    repo = handle(repo, client);
+                } catch (IOException e) {
+                    /* the client went away; wait for the next one*/
+                }
+                seen = Repository.stateStamp();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            Repository.DAEMON.delete();
+        }
+    }
+
+    /**
+     * Runs the command sent by CLIENT against REPO.
+     * @param repo repository
+     * @param client connection to the client
+     * @return repository for the next command, or null to stop
+     */
+    private static Repository handle(Repository repo, SocketChannel client)
+            throws IOException {
+        InputStream in = Channels.newInputStream(client);
+        String[] args = readArgs(in);
+        OutputStream bytes = new BufferedOutputStream(
+                Channels.newOutputStream(client));
+        PrintStream console = System.out;
+        InputStream keyboard = System.in;
+        PrintStream out = new PrintStream(bytes);
+        Repository next = repo;
+        System.setOut(out);
+        System.setIn(in);
+        try {
+            if (args.length == 0) {
+                System.out.println("Please enter a command.");
+            } else if (!args[0].equals("daemon")) {
+                Main.run(repo, args);
+                repo.discardUnsavedStage();
+            } else if (args.length == 1) {
+                System.out.println("A daemon is already running.");
+            } else if (args.length == 2 && args[1].equals("stop")) {
+                next = null;
+            } else if (args.length == 2 && args[1].equals("status")) {
+                repo.cacheStatus();
+            } else {
+                System.out.println("Incorrect operands.");
+            }
+        } catch (RuntimeException e) {
+            /* the client gets one line; the trace goes to the daemon's log,
+             * and the command may have left the repository half changed*/
+            out.println(e.getMessage() == null ? e.toString()
+                    : e.getMessage());
+            e.printStackTrace();
+            next = new Repository();
+        } finally {
+            out.flush();
+            System.setOut(console);
+            System.setIn(keyboard);
+        }
+        return next;
+    }
+
+    /**
+     * Reads the operands a client sent from IN.
+     * @param in connection input
+     * @return command and operands
+     */
+    private static String[] readArgs(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        String[] args = new String[data.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            byte[] bytes = new byte[data.readInt()];
+            data.readFully(bytes);
+            args[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return args;
+    }
+
+    /**
+     * Returns the address of this repository's socket. It is relative to
+     * the working directory, since socket paths are limited in length.
+     * @return socket address
+     */
+    private static UnixDomainSocketAddress address() {
+        Path relative = Repository.CWD.toPath()
+                .relativize(Repository.DAEMON.toPath());
+        return UnixDomainSocketAddress.of(relative);
+    }
+}
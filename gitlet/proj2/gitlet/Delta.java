@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Computes and applies binary deltas between two versions of an object.
+ * A delta is a header holding the base and result lengths followed by a
+ * sequence of instructions, each either copying a range of the base or
+ * inserting literal bytes.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Delta {
+
+    /**
+     * Length of the base blocks that are indexed when searching for
+     * matching ranges.
+     */
+    private static final int BLOCK = 16;
+    /**
+     * Most literal bytes carried by a single insert instruction.
+     */
+    private static final int MAX_INSERT = 0x7f;
+    /**
+     * Flag bit marking a copy instruction.
+     */
+    private static final int COPY = 0x80;
+
+    /**
+     * Returns a delta that rebuilds TARGET from BASE.
+     * @param base byte[]
+     * @param target byte[]
+     * @return delta
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        /* index every aligned block of the base by its hash*/
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        try {
+            Utils.writeVarint(out, base.length);
+            Utils.writeVarint(out, target.length);
+            int i = 0;
+            while (i < target.length) {
+                Integer match = null;
+                if (i + BLOCK <= target.length) {
+                    match = blocks.get(hash(target, i));
+                }
+                if (match != null && sameBlock(base, match, target, i)) {
+                    int len = BLOCK;
+                    while (match + len < base.length
+                            && i + len < target.length
+                            && base[match + len] == target[i + len]) {
+                        len += 1;
+                    }
+                    flushInsert(out, pending);
+                    out.write(COPY);
+                    Utils.writeVarint(out, match);
+                    Utils.writeVarint(out, len);
+                    i += len;
+                } else {
+                    pending.write(target[i]);
+                    i += 1;
+                }
+            }
+            flushInsert(out, pending);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the result of applying DELTA to BASE.
+     * @param base byte[]
+     * @param delta byte[]
+     * @return rebuilt object
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteArrayInputStream in = new ByteArrayInputStream(delta);
+        try {
+            if (Utils.readVarint(in) != base.length) {
+                throw Utils.error("Delta does not match its base.");
+            }
+            byte[] result = new byte[(int) Utils.readVarint(in)];
+            int pos = 0;
+            int op;
+            while ((op = in.read()) >= 0) {
+                if (op == COPY) {
+                    int offset = (int) Utils.readVarint(in);
+                    int len = (int) Utils.readVarint(in);
+                    System.arraycopy(base, offset, result, pos, len);
+                    pos += len;
+                } else {
+                    in.readNBytes(result, pos, op);
+                    pos += op;
+                }
+            }
+            if (pos != result.length) {
+                throw Utils.error("Delta is truncated.");
+            }
+            return result;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Writes the literal bytes in PENDING to OUT as insert instructions
+     * and empties PENDING.
+     * @param out output stream
+     * @param pending bytes waiting to be inserted
+     */
+    private static void flushInsert(ByteArrayOutputStream out,
+                                    ByteArrayOutputStream pending) {
+        byte[] bytes = pending.toByteArray();
+        for (int start = 0; start < bytes.length; start += MAX_INSERT) {
+            int len = Math.min(MAX_INSERT, bytes.length - start);
+            out.write(len);
+            out.write(bytes, start, len);
+        }
+        pending.reset();
+    }
+
+    /**
+     * Returns the hash of the BLOCK bytes of DATA starting at START.
+     * @param data byte[]
+     * @param start int
+     * @return hash
+     */
+    private static int hash(byte[] data, int start) {
+        int h = 1;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    /**
+     * Returns whether the BLOCK bytes of A at AI equal those of B at BI.
+     * @param a byte[]
+     * @param ai int
+     * @param b byte[]
+     * @param bi int
+     * @return if the blocks match
+     */
+    private static boolean sameBlock(byte[] a, int ai, byte[] b, int bi) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (a[ai + k] != b[bi + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,256 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers the listing of each working directory together with the
+ * directory's modification time and inode when it was listed. Creating,
+ * deleting or renaming an entry changes the time of the directory that
+ * holds it, so a directory whose time and inode are unchanged still has
+ * the files and subdirectories it had, and need not be read again. Editing
+ * a file in place does not change its directory's time, so this says
+ * nothing about file contents; those are checked through the StatCache.
+ * As there, an entry whose time is not before the time the cache file
+ * was written is racy and not trusted. Directories are named relative to
+ * the working directory, the working directory itself by the empty name.
+ * Listings may be read and recorded from several threads at once.
+ *
+ * @author Swetha Karthikeyan
+ */
+class DirCache {
+
+    /**
+     * First bytes of the cache file.
+     */
+    private static final String MAGIC = "GDIR";
+    /**
+     * Format version of the cache file.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The files and subdirectories of one directory, by name within it.
+     */
+    static class Listing {
+        /**
+         * Modification time of the directory in nanoseconds.
+         */
+        private final long mtime;
+        /**
+         * Inode of the directory.
+         */
+        private final long inode;
+        /**
+         * Names of its files.
+         */
+        private final List<String> files;
+        /**
+         * Names of its subdirectories.
+         */
+        private final List<String> dirs;
+
+        /**
+         * Listing constructor.
+         * @param m modification time
+         * @param i inode
+         * @param f file names
+         * @param d subdirectory names
+         */
+        Listing(long m, long i, List<String> f, List<String> d) {
+            mtime = m;
+            inode = i;
+            files = f;
+            dirs = d;
+        }
+
+        /**
+         * Returns the names of the files.
+         * @return file names
+         */
+        List<String> files() {
+            return files;
+        }
+
+        /**
+         * Returns the names of the subdirectories.
+         * @return subdirectory names
+         */
+        List<String> dirs() {
+            return dirs;
+        }
+    }
+
+    /**
+     * The cache file.
+     */
+    private final File file;
+    /**
+     * Listings by directory name, or null until read.
+     */
+    private TreeMap<String, Listing> listings;
+    /**
+     * Directories looked up since the cache was read or written.
+     */
+    private final HashSet<String> visited = new HashSet<>();
+    /**
+     * Modification time of the cache file in nanoseconds; listings not
+     * older are racy.
+     */
+    private long written;
+    /**
+     * Whether listings changed since the file was read or written.
+     */
+    private boolean dirty;
+
+    /**
+     * DirCache constructor. Nothing is read until first used.
+     * @param f cache file
+     */
+    DirCache(File f) {
+        file = f;
+    }
+
+    /**
+     * Returns the listing of the directory NAME, whose stat data is now
+     * STAT, or null if it is not known for that stat data.
+     * @param name directory name
+     * @param stat size, modification time and inode
+     * @return listing or null
+     */
+    synchronized Listing get(String name, long[] stat) {
+        load();
+        visited.add(name);
+        Listing l = listings.get(name);
+        if (l == null || l.mtime != stat[1] || l.inode != stat[2]
+                || l.mtime >= written) {
+            return null;
+        }
+        return l;
+    }
+
+    /**
+     * Records that the directory NAME held FILES and DIRS when its stat
+     * data was STAT, taken before it was read.
+     * @param name directory name
+     * @param stat size, modification time and inode
+     * @param files file names
+     * @param dirs subdirectory names
+     */
+    synchronized void put(String name, long[] stat, List<String> files,
+                          List<String> dirs) {
+        load();
+        visited.add(name);
+        listings.put(name, new Listing(stat[1], stat[2], files, dirs));
+        dirty = true;
+    }
+
+    /**
+     * Writes the cache if it changed, forgetting every directory not
+     * looked up since it was read if any was.
+     */
+    synchronized void save() {
+        if (listings != null && !visited.isEmpty()) {
+            dirty |= listings.keySet().retainAll(visited);
+        }
+        visited.clear();
+        if (!dirty) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBytes(MAGIC);
+            out.writeInt(VERSION);
+            Utils.writeVarint(out, listings.size());
+            for (Map.Entry<String, Listing> e : listings.entrySet()) {
+                Listing l = e.getValue();
+                Utils.writeString(out, e.getKey());
+                out.writeLong(l.mtime);
+                out.writeLong(l.inode);
+                writeNames(out, l.files);
+                writeNames(out, l.dirs);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        Utils.writeContents(file, bytes.toByteArray());
+        long[] stat = StatCache.stat(file);
+        written = stat == null ? 0 : stat[1];
+        dirty = false;
+    }
+
+    /**
+     * Writes NAMES to OUT, count first.
+     * @param out destination
+     * @param names names
+     * @throws IOException if OUT fails
+     */
+    private static void writeNames(DataOutputStream out, List<String> names)
+            throws IOException {
+        Utils.writeVarint(out, names.size());
+        for (String name : names) {
+            Utils.writeString(out, name);
+        }
+    }
+
+    /**
+     * Reads names written by writeNames from IN.
+     * @param in cache contents
+     * @return names
+     */
+    private static List<String> readNames(ByteBuffer in) {
+        long count = Utils.readVarint(in);
+        List<String> names = new ArrayList<>();
+        for (long i = 0; i < count; i += 1) {
+            names.add(Utils.readString(in));
+        }
+        return names;
+    }
+
+    /**
+     * Reads the cache file, if it has not been read yet. A missing or
+     * unreadable file leaves the cache empty.
+     */
+    private void load() {
+        if (listings != null) {
+            return;
+        }
+        listings = new TreeMap<>();
+        long[] stat = StatCache.stat(file);
+        if (stat == null) {
+            return;
+        }
+        written = stat[1];
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(file));
+        byte[] magic = new byte[MAGIC.length()];
+        try {
+            in.get(magic);
+            if (!MAGIC.equals(new String(magic, StandardCharsets.ISO_8859_1))
+                    || in.getInt() != VERSION) {
+                return;
+            }
+            long count = Utils.readVarint(in);
+            for (long i = 0; i < count; i += 1) {
+                String name = Utils.readString(in);
+                long mtime = in.getLong();
+                long inode = in.getLong();
+                List<String> files = readNames(in);
+                listings.put(name, new Listing(mtime, inode, files,
+                        readNames(in)));
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            /* cut short; every directory will be read again*/
+            listings.clear();
+        }
+    }
+}
@@ -18,8 +18,20 @@ public class Main {
             System.out.println("Please enter a command.");
             return;
         }
+        /*let a running daemon do the work if there is one*/
+        if (Daemon.forward(args)) {
+            return;
+        }
+        run(new Repository(), args);
+    }
+
+    /**
+     * Runs the command ARGS, which is not empty, against REPO.
+     * @param repo repository
+     * @param args command and operands
+     */
+    static void run(Repository repo, String[] args) {
         String firstArg = args[0];
-        Repository repo = new Repository();
         switch (firstArg) {
             case "init":
                 if (args.length == 1) {
@@ -27,7 +39,7 @@ public class Main {
                 }
                 break;
             case "add":
-                if ((args.length == 2) && initializedGitlet()) {
+                if ((args.length >= 2) && initializedGitlet()) {
                     repo.add(args);
                 }
                 break;
@@ -57,7 +69,7 @@ public class Main {
                 }
                 break;
             case "rm":
-                if ((args.length == 2) && initializedGitlet()) {
+                if ((args.length >= 2) && initializedGitlet()) {
                     repo.rm(args);
                 }
                 break;
@@ -86,10 +98,57 @@ public class Main {
                     repo.merge(args);
                 }
                 break;
+            case "gc":
+                if ((args.length == 1) && initializedGitlet()) {
+                    repo.gc();
+                }
+                break;
+            case "migrate":
+                if ((args.length == 1) && initializedGitlet()) {
+                    repo.migrate();
+                }
+                break;
+            case "config":
+                if ((args.length == 2 || args.length == 3)
+                        && initializedGitlet()) {
+                    repo.config(args);
+                }
+                break;
+            case "sparse":
+                if (!initializedGitlet()) {
+                    break;
+                } else if (args.length >= 2) {
+                    repo.sparse(args);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "batch":
+                if (!initializedGitlet()) {
+                    break;
+                } else if (args.length == 2) {
+                    Batch.run(repo, args[1]);
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
+            case "daemon":
+                if (!initializedGitlet()) {
+                    break;
+                } else if (args.length == 1) {
+                    Daemon.serve();
+                } else if (args.length == 2 && (args[1].equals("stop")
+                        || args[1].equals("status"))) {
+                    System.out.println("No daemon is running.");
+                } else {
+                    System.out.println("Incorrect operands.");
+                }
+                break;
             default :
                 System.out.println("No command with that name exists.");
                 return;
         }
+        repo.saveCaches();
     }
 
 
@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the best common ancestors of two commits: common ancestors that
+ * are not ancestors of another common ancestor. Usually there is one;
+ * after criss-cross merges there can be several. Both commits are walked
+ * together through the commit graph, highest generation first, marking
+ * each commit with the sides that reach it. A commit reached from both
+ * sides is a best common ancestor unless a best one was already found
+ * above it, and everything below it is marked stale. Since a commit's
+ * generation is higher than all of its ancestors', every commit is seen
+ * after all of its descendants in the walk, so each is visited at most
+ * once per side and the walk stops as soon as only stale commits remain
+ * to visit, without reaching the rest of history. Answers are remembered
+ * for the life of this object.
+ *
+ * @author Swetha Karthikeyan
+ */
+class MergeBase {
+
+    /**
+     * Marks commits reached from the first commit.
+     */
+    private static final int FIRST = 1;
+    /**
+     * Marks commits reached from the second commit.
+     */
+    private static final int SECOND = 2;
+    /**
+     * Marks commits below a best common ancestor.
+     */
+    private static final int STALE = 4;
+    /**
+     * Marks commits already in the result.
+     */
+    private static final int RESULT = 8;
+
+    /**
+     * The commit graph walked.
+     */
+    private final CommitGraph graph;
+    /**
+     * Best common ancestors of each pair of records asked about.
+     */
+    private final HashMap<Long, List<Integer>> memo = new HashMap<>();
+
+    /**
+     * MergeBase constructor.
+     * @param g commit graph
+     */
+    MergeBase(CommitGraph g) {
+        graph = g;
+    }
+
+    /**
+     * Returns the best common ancestors of the records A and B, highest
+     * generation first, or an empty list if they share no history.
+     * @param a record number
+     * @param b record number
+     * @return record numbers
+     */
+    List<Integer> bases(int a, int b) {
+        long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+        List<Integer> result = memo.get(key);
+        if (result == null) {
+            result = Collections.unmodifiableList(paint(a, b));
+            memo.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Walks down from A and B and returns their best common ancestors.
+     * @param a record number
+     * @param b record number
+     * @return record numbers
+     */
+    private List<Integer> paint(int a, int b) {
+        List<Integer> result = new ArrayList<>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(graph.generation(y),
+                    graph.generation(x));
+            return cmp != 0 ? cmp : Integer.compare(y, x);
+        });
+        /* a commit is queued at most once, since its flags are read
+         * when it is taken off; fresh counts queued commits not stale*/
+        HashSet<Integer> queued = new HashSet<>();
+        flags.put(a, FIRST);
+        flags.put(b, SECOND);
+        queue.add(a);
+        queue.add(b);
+        queued.add(a);
+        queued.add(b);
+        int fresh = 2;
+        while (fresh > 0) {
+            int c = queue.poll();
+            queued.remove(c);
+            int f = flags.get(c);
+            if ((f & STALE) == 0) {
+                fresh -= 1;
+            }
+            int sides = f & (FIRST | SECOND | STALE);
+            if ((f & (FIRST | SECOND)) == (FIRST | SECOND)) {
+                if ((f & (STALE | RESULT)) == 0) {
+                    flags.put(c, f | RESULT);
+                    result.add(c);
+                }
+                sides |= STALE;
+            }
+            for (int p : new int[]{graph.firstParent(c),
+                    graph.secondParent(c)}) {
+                if (p == CommitGraph.NONE) {
+                    continue;
+                }
+                int old = flags.getOrDefault(p, 0);
+                if ((old & sides) == sides) {
+                    continue;
+                }
+                flags.put(p, old | sides);
+                boolean stale = ((old | sides) & STALE) != 0;
+                if (queued.add(p)) {
+                    queue.add(p);
+                    if (!stale) {
+                        fresh += 1;
+                    }
+                } else if (stale && (old & STALE) == 0) {
+                    fresh -= 1;
+                }
+            }
+        }
+        return result;
+    }
+}
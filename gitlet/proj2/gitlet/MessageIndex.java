@@ -0,0 +1,424 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Finds commits by message without reading them. Each commit has one
+ * posting under its exact message and one under each distinct term of
+ * it, a term being a run of letters and digits in lower case. Postings
+ * are kept in a file sorted by key, then commit id, with a table of
+ * their offsets at the end, so the postings of a key, or of every key
+ * starting with some text, are found by a binary search of the
+ * memory-mapped file. New postings are appended to a log that is merged
+ * into the sorted file once it grows long. An index that does not exist
+ * yet is built by reading every stored commit once.
+ *
+ * @author Swetha Karthikeyan
+ */
+class MessageIndex {
+
+    /**
+     * First bytes of the sorted file.
+     */
+    private static final String MAGIC = "GMSG";
+    /**
+     * Format version of the sorted file.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Length of the header: magic, version and posting count.
+     */
+    private static final int HEADER = 12;
+    /**
+     * Length of a raw SHA-1 id.
+     */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Postings the log may hold before it is merged into the sorted file.
+     */
+    private static final int LOG_LIMIT = 4096;
+    /**
+     * First key byte of a posting under an exact message.
+     */
+    private static final byte EXACT = 'm';
+    /**
+     * First key byte of a posting under a term.
+     */
+    private static final byte TERM = 't';
+
+    /**
+     * One key and the commit filed under it.
+     */
+    private static class Posting implements Comparable<Posting> {
+        /**
+         * Kind byte followed by the UTF-8 message or term.
+         */
+        private final byte[] key;
+        /**
+         * Raw commit id.
+         */
+        private final byte[] id;
+
+        /**
+         * Posting constructor.
+         * @param k key
+         * @param i raw commit id
+         */
+        Posting(byte[] k, byte[] i) {
+            key = k;
+            id = i;
+        }
+
+        @Override
+        public int compareTo(Posting o) {
+            int cmp = Arrays.compareUnsigned(key, o.key);
+            return cmp != 0 ? cmp : Arrays.compareUnsigned(id, o.id);
+        }
+    }
+
+    /**
+     * The sorted file.
+     */
+    private final File sortedFile;
+    /**
+     * The log of postings added since the sorted file was written.
+     */
+    private final File logFile;
+    /**
+     * The mapped sorted file, or null until first used.
+     */
+    private ByteBuffer sorted;
+    /**
+     * Number of postings in the sorted file.
+     */
+    private int count;
+    /**
+     * Offset of the posting offset table in the sorted file.
+     */
+    private int table;
+    /**
+     * Postings in the log, or null until first used.
+     */
+    private List<Posting> logged;
+
+    /**
+     * MessageIndex constructor. Nothing is read until the first lookup.
+     * @param file sorted file
+     * @param log log file
+     */
+    MessageIndex(File file, File log) {
+        sortedFile = file;
+        logFile = log;
+    }
+
+    /**
+     * Returns the ids of the commits whose message is MESSAGE, in sorted
+     * order.
+     * @param message commit message
+     * @return commit ids
+     */
+    List<String> exact(String message) {
+        load();
+        return new ArrayList<>(lookup(key(EXACT, message), false));
+    }
+
+    /**
+     * Returns the ids of the commits whose messages hold every term of
+     * WORDS, in sorted order.
+     * @param words one or more terms
+     * @return commit ids
+     */
+    List<String> term(String words) {
+        load();
+        TreeSet<String> result = null;
+        for (String t : terms(words)) {
+            TreeSet<String> ids = lookup(key(TERM, t), false);
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+        }
+        return result == null ? new ArrayList<>() : new ArrayList<>(result);
+    }
+
+    /**
+     * Returns the ids of the commits whose messages hold a term starting
+     * with START, in sorted order.
+     * @param start beginning of a term
+     * @return commit ids
+     */
+    List<String> prefix(String start) {
+        load();
+        List<String> t = terms(start);
+        if (t.size() != 1) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(lookup(key(TERM, t.get(0)), true));
+    }
+
+    /**
+     * Files the new commit ID under its MESSAGE.
+     * @param id commit id
+     * @param message commit message
+     */
+    void add(String id, String message) {
+        if (!sortedFile.isFile()) {
+            /* the index is built from the store, which holds ID already*/
+            load();
+            return;
+        }
+        load();
+        List<Posting> postings = postings(id, message);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Posting p : postings) {
+                writePosting(out, p);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        logged.addAll(postings);
+        if (logged.size() >= LOG_LIMIT) {
+            write(logged);
+        }
+    }
+
+    /**
+     * Returns the distinct terms of TEXT, in order of appearance.
+     * @param text message or query
+     * @return lower-case terms
+     */
+    static List<String> terms(String text) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (String t : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!t.isEmpty()) {
+                result.add(t);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Returns the ids filed under KEY, or under every key starting with
+     * KEY if PREFIX.
+     * @param key posting key
+     * @param prefix whether KEY is only the start of the keys wanted
+     * @return commit ids
+     */
+    private TreeSet<String> lookup(byte[] key, boolean prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(read(mid).key, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count; i += 1) {
+            Posting p = read(i);
+            if (!matches(p.key, key, prefix)) {
+                break;
+            }
+            result.add(Utils.bytesToHex(p.id, 0, ID_BYTES));
+        }
+        for (Posting p : logged) {
+            if (matches(p.key, key, prefix)) {
+                result.add(Utils.bytesToHex(p.id, 0, ID_BYTES));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether KEY is WANTED, or starts with it if PREFIX.
+     * @param key posting key
+     * @param wanted key looked up
+     * @param prefix whether WANTED is only the start of the key
+     * @return true on a match
+     */
+    private static boolean matches(byte[] key, byte[] wanted,
+                                   boolean prefix) {
+        if (prefix) {
+            return key.length >= wanted.length
+                    && Arrays.equals(key, 0, wanted.length,
+                            wanted, 0, wanted.length);
+        }
+        return Arrays.equals(key, wanted);
+    }
+
+    /**
+     * Maps the sorted file and reads the log, building the sorted file
+     * from every stored commit if it does not exist.
+     */
+    private void load() {
+        if (sorted != null) {
+            return;
+        }
+        if (!sortedFile.isFile()) {
+            List<Posting> all = new ArrayList<>();
+            for (String id : ObjectStore.commitIds()) {
+                all.addAll(postings(id,
+                        Commit.readCommit(id).getMessage()));
+            }
+            write(all);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(sortedFile.toPath(),
+                StandardOpenOption.READ)) {
+            sorted = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        byte[] magic = new byte[MAGIC.length()];
+        sorted.get(0, magic);
+        if (!MAGIC.equals(new String(magic, StandardCharsets.ISO_8859_1))
+                || sorted.getInt(4) != VERSION) {
+            throw Utils.error("Unknown message index format.");
+        }
+        count = sorted.getInt(8);
+        table = sorted.capacity() - 4 * count;
+        logged = new ArrayList<>();
+        if (logFile.isFile()) {
+            ByteBuffer in = ByteBuffer.wrap(Utils.readContents(logFile));
+            /* a posting cut short by a crash is ignored*/
+            while (in.remaining() >= 4) {
+                int len = in.getInt();
+                if (len < 0 || in.remaining() < len + ID_BYTES) {
+                    break;
+                }
+                byte[] key = new byte[len];
+                byte[] id = new byte[ID_BYTES];
+                in.get(key);
+                in.get(id);
+                logged.add(new Posting(key, id));
+            }
+        }
+    }
+
+    /**
+     * Writes the postings of the sorted file together with ADDED as the
+     * new sorted file, through a temporary file that is renamed into
+     * place, and empties the log. Both are read in order, so the old
+     * postings are streamed from the mapped file, not held in memory.
+     * @param added postings to merge in
+     */
+    private void write(List<Posting> added) {
+        List<Posting> extra = new ArrayList<>(added);
+        Collections.sort(extra);
+        int old = sorted == null ? 0 : count;
+        int[] offsets = new int[old + extra.size()];
+        File tmp = new File(sortedFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeBytes(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(offsets.length);
+            int i = 0;
+            int j = 0;
+            for (int n = 0; n < offsets.length; n += 1) {
+                Posting next;
+                if (j == extra.size() || i < old
+                        && read(i).compareTo(extra.get(j)) <= 0) {
+                    next = read(i);
+                    i += 1;
+                } else {
+                    next = extra.get(j);
+                    j += 1;
+                }
+                offsets[n] = out.size();
+                writePosting(out, next);
+            }
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        tmp.renameTo(sortedFile);
+        logFile.delete();
+        sorted = null;
+        logged = null;
+        load();
+    }
+
+    /**
+     * Returns posting I of the sorted file.
+     * @param i posting number
+     * @return posting
+     */
+    private Posting read(int i) {
+        int offset = sorted.getInt(table + 4 * i);
+        byte[] key = new byte[sorted.getInt(offset)];
+        byte[] id = new byte[ID_BYTES];
+        sorted.get(offset + 4, key);
+        sorted.get(offset + 4 + key.length, id);
+        return new Posting(key, id);
+    }
+
+    /**
+     * Writes P to OUT as its key length, key and id.
+     * @param out destination
+     * @param p posting
+     */
+    private static void writePosting(DataOutputStream out, Posting p)
+            throws IOException {
+        out.writeInt(p.key.length);
+        out.write(p.key);
+        out.write(p.id);
+    }
+
+    /**
+     * Returns the postings of the commit ID with MESSAGE.
+     * @param id commit id
+     * @param message commit message
+     * @return postings
+     */
+    private static List<Posting> postings(String id, String message) {
+        byte[] raw = Utils.hexToBytes(id);
+        List<Posting> result = new ArrayList<>();
+        result.add(new Posting(key(EXACT, message), raw));
+        for (String t : terms(message)) {
+            result.add(new Posting(key(TERM, t), raw));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the key of KIND for TEXT.
+     * @param kind EXACT or TERM
+     * @param text message or term
+     * @return key bytes
+     */
+    private static byte[] key(byte kind, String text) {
+        byte[] utf = text.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[utf.length + 1];
+        result[0] = kind;
+        System.arraycopy(utf, 0, result, 1, utf.length);
+        return result;
+    }
+}
@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Remembers which blobs are already stored, so that adding content the
+ * repository has seen before writes nothing. A Bloom filter answers most
+ * probes: a miss means the blob is certainly new. A hit is confirmed
+ * by the exact set of stored ids, so no probe makes a file-system call.
+ * The filter and the list of stored ids it is built from are kept on
+ * disk and updated in place as blobs are stored: the id is appended to
+ * the list, then only the bytes of the filter that change are rewritten.
+ * The list is read once, on the first probe, into the exact set.
+ * Probes and updates may come from several threads at once.
+ *
+ * @author Swetha Karthikeyan
+ */
+class ObjectFilter {
+
+    /**
+     * First bytes of the filter file.
+     */
+    private static final String MAGIC = "GBLM";
+    /**
+     * Format version of the filter file.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Length of the filter file header: magic, version, bits and count.
+     */
+    private static final int HEADER = 16;
+    /**
+     * Offset of the id count in the filter file header.
+     */
+    private static final int COUNT_OFFSET = 12;
+    /**
+     * Bits set for each id.
+     */
+    private static final int HASHES = 7;
+    /**
+     * Filter bits per id before the filter is rebuilt larger, which keeps
+     * false positives near one percent.
+     */
+    private static final int BITS_PER_ID = 10;
+    /**
+     * Size of the smallest filter, in bits.
+     */
+    private static final int MIN_BITS = 1 << 16;
+    /**
+     * Length of a raw SHA-1 id.
+     */
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /**
+     * The Bloom filter file.
+     */
+    private final File filterFile;
+    /**
+     * The file of stored ids, 20 raw bytes each.
+     */
+    private final File idsFile;
+    /**
+     * Filter bits, or null until first used.
+     */
+    private byte[] bits;
+    /**
+     * Number of ids in the filter.
+     */
+    private int count;
+    /**
+     * Every id in the id list, or null until first used.
+     */
+    private HashSet<String> ids;
+
+    /**
+     * ObjectFilter constructor. Nothing is read until the first probe.
+     * @param filter Bloom filter file
+     * @param idList file of stored ids
+     */
+    ObjectFilter(File filter, File idList) {
+        filterFile = filter;
+        idsFile = idList;
+    }
+
+    /**
+     * Returns whether the blob ID is already stored.
+     * @param id blob id
+     * @return true if stored
+     */
+    synchronized boolean contains(String id) {
+        load();
+        return mightContain(id) && ids.contains(id);
+    }
+
+    /**
+     * Records that the blob ID has been stored. An id already recorded,
+     * by a thread that stored the same blob at once, is not recorded
+     * again.
+     * @param id blob id
+     */
+    synchronized void add(String id) {
+        load();
+        if (!ids.add(id)) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(idsFile, true)) {
+            out.write(Utils.hexToBytes(id));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        count += 1;
+        if ((long) count * BITS_PER_ID > 8L * bits.length) {
+            rebuild(ids);
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(filterFile, "rw")) {
+            for (int index : indexes(id)) {
+                bits[index >>> 3] |= 1 << (index & 7);
+                file.seek(HEADER + (index >>> 3));
+                file.write(bits[index >>> 3]);
+            }
+            file.seek(COUNT_OFFSET);
+            file.writeInt(count);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Reads the id list and the filter, building them from the stored
+     * blobs if they do not exist yet and rebuilding the filter from the
+     * id list if an update was cut short.
+     */
+    private void load() {
+        if (bits != null) {
+            return;
+        }
+        if (!idsFile.exists()) {
+            ids = new HashSet<>(ObjectStore.blobIds());
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            for (String id : ids) {
+                raw.writeBytes(Utils.hexToBytes(id));
+            }
+            Utils.writeContents(idsFile, raw.toByteArray());
+            rebuild(ids);
+            return;
+        }
+        ids = exactIds();
+        if (!filterFile.exists()) {
+            rebuild(ids);
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(filterFile));
+        byte[] magic = new byte[MAGIC.length()];
+        in.get(magic);
+        if (!MAGIC.equals(new String(magic, StandardCharsets.ISO_8859_1))
+                || in.getInt() != VERSION) {
+            rebuild(ids);
+            return;
+        }
+        int numBits = in.getInt();
+        count = in.getInt();
+        if (count != ids.size()) {
+            rebuild(ids);
+            return;
+        }
+        bits = new byte[numBits / 8];
+        in.get(bits);
+    }
+
+    /**
+     * Returns every stored id in the id list. A list holding an id twice,
+     * or a record cut short, is rewritten without it, so it again has one
+     * record per id counted.
+     * @return stored ids
+     */
+    private HashSet<String> exactIds() {
+        byte[] raw = Utils.readContents(idsFile);
+        HashSet<String> found = new HashSet<>(2 * (raw.length / ID_BYTES));
+        ByteArrayOutputStream unique = new ByteArrayOutputStream();
+        for (int i = 0; i + ID_BYTES <= raw.length; i += ID_BYTES) {
+            if (found.add(Utils.bytesToHex(raw, i, ID_BYTES))) {
+                unique.write(raw, i, ID_BYTES);
+            }
+        }
+        if (unique.size() != raw.length) {
+            Utils.writeContents(idsFile, unique.toByteArray());
+        }
+        return found;
+    }
+
+    /**
+     * Writes a new filter of ALL, sized with room to grow.
+     * @param all every stored id
+     */
+    private void rebuild(Collection<String> all) {
+        int numBits = MIN_BITS;
+        while ((long) numBits < 2L * BITS_PER_ID * all.size()) {
+            numBits *= 2;
+        }
+        bits = new byte[numBits / 8];
+        count = all.size();
+        for (String id : all) {
+            for (int index : indexes(id)) {
+                bits[index >>> 3] |= 1 << (index & 7);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBytes(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numBits);
+            out.writeInt(count);
+            out.write(bits);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        Utils.writeContents(filterFile, bytes.toByteArray());
+    }
+
+    /**
+     * Returns whether every bit for ID is set.
+     * @param id blob id
+     * @return false if ID is certainly not stored
+     */
+    private boolean mightContain(String id) {
+        for (int index : indexes(id)) {
+            if ((bits[index >>> 3] & (1 << (index & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the filter bits for ID. The id is already a uniform hash,
+     * so two halves of it are combined instead of hashing again.
+     * @param id blob id
+     * @return bit indexes
+     */
+    private int[] indexes(String id) {
+        long h1 = Long.parseUnsignedLong(id.substring(0, 16), 16);
+        long h2 = Long.parseUnsignedLong(id.substring(16, 32), 16) | 1;
+        long numBits = 8L * bits.length;
+        int[] result = new int[HASHES];
+        for (int i = 0; i < HASHES; i += 1) {
+            result[i] = (int) Math.floorMod(h1 + i * h2, numBits);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,973 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Reads blobs, trees and commits wherever they are stored: as loose files
+ * in the blobs, trees and commits directories, or inside a pack. Loose
+ * objects are sharded by the first two characters of their id
+ * (commits/ab/cdef...), and objects left in the flat layout of older
+ * repositories are still read until migrate moves them. Writes new loose
+ * objects compressed with the best codec, and packs loose objects
+ * together with gc.
+ *
+ * @author Swetha Karthikeyan
+ */
+class ObjectStore {
+
+    /**
+     * How many earlier objects of a group are tried as delta bases.
+     */
+    private static final int WINDOW = 10;
+    /**
+     * Longest delta chain allowed, so reads stay cheap.
+     */
+    private static final int MAX_DEPTH = 10;
+    /**
+     * Most blobs sampled when training a compression dictionary.
+     */
+    private static final int DICT_SAMPLES = 1000;
+    /**
+     * Bytes taken from the start of each sampled blob.
+     */
+    private static final int SAMPLE_BYTES = 4096;
+    /**
+     * Length of the id prefix naming a shard directory.
+     */
+    private static final int SHARD = 2;
+    /**
+     * Suffix of blob files in the flat layout.
+     */
+    private static final String FLAT_BLOB_SUFFIX = ".txt";
+    /**
+     * Checkout mode that writes each file from the object's contents.
+     */
+    static final String COPY = "copy";
+    /**
+     * Checkout mode that has the kernel copy uncompressed objects.
+     */
+    static final String TRANSFER = "transfer";
+    /**
+     * Checkout mode that hard-links files to uncompressed loose objects.
+     */
+    static final String LINK = "link";
+
+    /**
+     * Files larger than this are streamed into the store rather than
+     * read into memory.
+     */
+    private static final long STREAM_LIMIT = 1 << 20;
+    /**
+     * Size of the buffer files are streamed through.
+     */
+    private static final int BUFFER = 64 * 1024;
+    /**
+     * Objects at least this large are read by mapping their file rather
+     * than copying them onto the heap.
+     */
+    private static final long MAP_LIMIT = 64 * 1024;
+    /**
+     * Streamed files are stored uncompressed if deflate does not shrink
+     * their first buffer below this fraction of its size.
+     */
+    private static final double STORE_RATIO = 0.9;
+
+    /**
+     * Returns the contents of the blob with the given ID.
+     * @param id blob id
+     * @return blob contents
+     */
+    static byte[] readBlob(String id) {
+        try (InputStream in = openBlob(id)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns a stream of the contents of the blob with the given ID.
+     * @param id blob id
+     * @return blob contents
+     */
+    static InputStream openBlob(String id) {
+        return open(Repository.BLOBS, FLAT_BLOB_SUFFIX, id);
+    }
+
+    /**
+     * Returns a read-only view of the contents of the blob with the given
+     * ID. Large objects are mapped from their loose or pack file, and
+     * when they are stored uncompressed the view is the mapping itself, so
+     * no copy is made on the heap. Small objects are read as before.
+     * @param id blob id
+     * @return blob contents
+     */
+    static ByteBuffer viewBlob(String id) {
+        ByteBuffer mapped = map(Repository.BLOBS, FLAT_BLOB_SUFFIX, id);
+        if (mapped != null) {
+            ByteBuffer view = Codec.view(mapped);
+            if (view != null) {
+                return view;
+            }
+            return ByteBuffer.wrap(Codec.decode(mapped)).asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(readBlob(id)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the contents of the blob with the given ID to FILE in the
+     * given MODE, replacing FILE at once by renaming a finished temporary
+     * file over it, so FILE is never seen half written.
+     * @param id blob id
+     * @param file destination
+     * @param mode COPY, TRANSFER or LINK
+     */
+    static void checkoutBlob(String id, File file, String mode) {
+        installBlob(stageBlob(id, file, mode), file);
+    }
+
+    /**
+     * Writes the contents of the blob with the given ID in the given MODE
+     * to a new temporary file beside FILE, to be renamed over FILE by
+     * installBlob, and returns it. COPY writes large uncompressed objects
+     * from their mapping and decompresses others as they are copied.
+     * TRANSFER has the kernel copy uncompressed objects straight from
+     * their loose or pack file. LINK hard-links to a loose object stored
+     * bare and makes the object read-only, so an edit through the link is
+     * refused rather than changing stored content (editors that save by
+     * replacing the file simply break the link). Objects that cannot be
+     * checked out in MODE fall back to TRANSFER, then COPY. Since FILE is
+     * replaced rather than written, nothing is ever written through an
+     * earlier link. The temporary file is removed if writing fails.
+     * @param id blob id
+     * @param file destination
+     * @param mode COPY, TRANSFER or LINK
+     * @return temporary file
+     */
+    static File stageBlob(String id, File file, String mode) {
+        File tmp;
+        try {
+            Path dir = file.getAbsoluteFile().getParentFile().toPath();
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, ".gitlet-", ".tmp").toFile();
+            /* a link cannot be made over an existing file*/
+            Files.delete(tmp.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        boolean done = false;
+        try {
+            writeBlobTo(id, tmp, mode);
+            done = true;
+            return tmp;
+        } finally {
+            if (!done) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Renames TMP, made by stageBlob, over FILE in one step.
+     * @param tmp temporary file
+     * @param file destination
+     */
+    static void installBlob(File tmp, File file) {
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            /* renaming a link over another link to the same object
+             * does nothing, leaving the temporary file behind*/
+            Files.deleteIfExists(tmp.toPath());
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Writes the blob ID to FILE, which does not exist, in MODE.
+     * @param id blob id
+     * @param file destination
+     * @param mode COPY, TRANSFER or LINK
+     */
+    private static void writeBlobTo(String id, File file, String mode) {
+        if (mode.equals(LINK) && link(id, file)) {
+            return;
+        }
+        if (!mode.equals(COPY) && transfer(id, file)) {
+            return;
+        }
+        ByteBuffer mapped = map(Repository.BLOBS, FLAT_BLOB_SUFFIX, id);
+        ByteBuffer view = mapped == null ? null : Codec.view(mapped);
+        if (view != null) {
+            try (FileChannel out = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (view.hasRemaining()) {
+                    out.write(view);
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            return;
+        }
+        try (InputStream in = openBlob(id)) {
+            Files.copy(in, file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns a stream of the encoded commit with the given ID.
+     * @param id commit id
+     * @return encoded commit
+     */
+    static InputStream openCommit(String id) {
+        return open(Repository.COMMITS, "", id);
+    }
+
+    /**
+     * Returns the encoded commit with the given ID.
+     * @param id commit id
+     * @return encoded commit
+     */
+    static byte[] readCommit(String id) {
+        try (InputStream in = openCommit(id)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the encoded tree node with the given ID.
+     * @param id tree node id
+     * @return encoded tree node
+     */
+    static byte[] readTree(String id) {
+        try (InputStream in = open(Repository.TREES, "", id)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Saves DATA as the loose tree node ID unless it is already loose.
+     * Nodes shared with earlier commits are mostly found this way.
+     * @param id tree node id
+     * @param data encoded tree node
+     */
+    static void writeTree(String id, byte[] data) {
+        if (!shardFile(Repository.TREES, id).exists()) {
+            writeLoose(Repository.TREES, id, data);
+        }
+    }
+
+    /**
+     * Stores the contents of FILE as a loose blob and returns its id, the
+     * SHA-1 of the raw bytes. The file is read once: small files into
+     * memory and compressed with the best codec, larger ones streamed
+     * through a fixed buffer that feeds both the digest and a compressed
+     * temporary object, which is renamed into its shard once the id is
+     * known. Memory use does not grow with the size of the file. Streamed
+     * files whose first buffer does not compress are stored uncompressed,
+     * so that they can later be read through a mapping.
+     * Nothing is written if KNOWN already holds the blob.
+     * @param file file to store
+     * @param known stored blobs
+     * @return blob id
+     */
+    static String ingestBlob(File file, ObjectFilter known) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= STREAM_LIMIT) {
+                ByteBuffer buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                    continue;
+                }
+                byte[] data = buf.array();
+                String id = Utils.sha1(data);
+                writeBlob(id, data, known);
+                return id;
+            }
+            return streamBlob(channel, size, known);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Stores each of FILES as ingestBlob does, on a fork-join pool of
+     * THREADS threads, and returns their blob ids in the same order.
+     * @param files files to store
+     * @param known stored blobs
+     * @param threads most threads used
+     * @return blob ids
+     */
+    static String[] ingestBlobs(List<File> files, ObjectFilter known,
+                                int threads) {
+        String[] ids = new String[files.size()];
+        if (files.size() < 2 || threads < 2) {
+            for (int i = 0; i < ids.length; i += 1) {
+                ids[i] = ingestBlob(files.get(i), known);
+            }
+            return ids;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, ids.length).parallel()
+                    .forEach(i -> ids[i] = ingestBlob(files.get(i), known)))
+                    .get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            pool.shutdown();
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the id FILE would have as a blob, without storing it. The
+     * file is streamed through a fixed buffer.
+     * @param file file to hash
+     * @return blob id
+     */
+    static String hashBlob(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[BUFFER];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+            return Utils.bytesToHex(md.digest(), 0, Utils.UID_LENGTH / 2);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Stores the SIZE bytes read from CHANNEL as a loose blob in one pass
+     * and returns its id. The temporary object is dropped if KNOWN already
+     * holds the blob.
+     * @param channel open file
+     * @param size length of the file
+     * @param known stored blobs
+     * @return blob id
+     */
+    private static String streamBlob(FileChannel channel, long size,
+                                     ObjectFilter known) throws IOException {
+        Repository.BLOBS.mkdirs();
+        Path tmp = Files.createTempFile(Repository.BLOBS.toPath(),
+                "ingest", ".tmp");
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long total = 0;
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+            int n = channel.read(buf);
+            while (buf.hasRemaining() && n >= 0) {
+                n = channel.read(buf);
+            }
+            byte[] first = Arrays.copyOf(buf.array(), buf.position());
+            OutputStream file = new BufferedOutputStream(
+                    Files.newOutputStream(tmp), BUFFER);
+            OutputStream encoder;
+            if (Codec.encode(first, Codec.DEFLATE, null).length
+                    < first.length * STORE_RATIO) {
+                encoder = Codec.encoder(file, Codec.DEFLATE, size);
+            } else if (Codec.hasMagic(first)) {
+                encoder = Codec.encoder(file, Codec.STORED, size);
+            } else {
+                encoder = file;
+            }
+            try (OutputStream out = encoder) {
+                for (n = buf.position(); n > 0; n = channel.read(buf)) {
+                    md.update(buf.array(), 0, n);
+                    out.write(buf.array(), 0, n);
+                    total += n;
+                    buf.clear();
+                }
+            }
+            if (total != size) {
+                throw Utils.error("File changed while it was being stored.");
+            }
+            String id = Utils.bytesToHex(md.digest(), 0, Utils.UID_LENGTH / 2);
+            if (known.contains(id)) {
+                return id;
+            }
+            File target = shardFile(Repository.BLOBS, id);
+            target.getParentFile().mkdirs();
+            Files.move(tmp, target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            known.add(id);
+            return id;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Saves DATA as the loose blob ID unless KNOWN already holds it, and
+     * records it in KNOWN.
+     * @param id blob id
+     * @param data blob contents
+     * @param known stored blobs
+     */
+    static void writeBlob(String id, byte[] data, ObjectFilter known) {
+        if (!known.contains(id)) {
+            writeLoose(Repository.BLOBS, id, data);
+            known.add(id);
+        }
+    }
+
+    /**
+     * Saves DATA as the loose commit ID.
+     * @param id commit id
+     * @param data encoded commit
+     */
+    static void writeCommit(String id, byte[] data) {
+        writeLoose(Repository.COMMITS, id, data);
+    }
+
+    /**
+     * Returns the ids of every commit, loose or packed, in sorted order.
+     * @return commit ids
+     */
+    static List<String> commitIds() {
+        TreeSet<String> ids = looseIds(Repository.COMMITS, "");
+        for (Pack pack : packs()) {
+            ids.addAll(pack.ids(Pack.COMMIT));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Returns the ids of every blob, loose or packed, in sorted order.
+     * @return blob ids
+     */
+    static List<String> blobIds() {
+        TreeSet<String> ids = looseIds(Repository.BLOBS, FLAT_BLOB_SUFFIX);
+        for (Pack pack : packs()) {
+            ids.addAll(pack.ids(Pack.BLOB));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Returns the ids of every commit that starts with PREFIX, in sorted
+     * order. Only the shard directory and the pack index range that can
+     * hold such ids are read.
+     * @param prefix abbreviated commit id
+     * @return matching commit ids
+     */
+    static List<String> findCommits(String prefix) {
+        TreeSet<String> ids = new TreeSet<>();
+        if (prefix.length() < SHARD) {
+            ids.addAll(commitIds());
+        } else {
+            String[] names = Utils.join(Repository.COMMITS,
+                    prefix.substring(0, SHARD)).list();
+            if (names != null) {
+                for (String name : names) {
+                    ids.add(prefix.substring(0, SHARD) + name);
+                }
+            }
+            if (!Repository.SHARDED.exists()) {
+                ids.addAll(Utils.plainFilenamesIn(Repository.COMMITS));
+            }
+            for (Pack pack : packs()) {
+                ids.addAll(pack.ids(Pack.COMMIT, prefix));
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (String id : ids) {
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves every loose object still in the flat layout into its shard
+     * directory. The files are renamed, not rewritten.
+     */
+    static void migrate() {
+        migrate(Repository.COMMITS, "");
+        migrate(Repository.BLOBS, FLAT_BLOB_SUFFIX);
+        Utils.writeContents(Repository.SHARDED, "");
+    }
+
+    /**
+     * Moves the flat loose objects in DIR, whose names end in SUFFIX, into
+     * shard directories.
+     * @param dir commits or blobs directory
+     * @param suffix flat file name suffix
+     */
+    private static void migrate(File dir, String suffix) {
+        for (String name : Utils.plainFilenamesIn(dir)) {
+            if (!name.endsWith(suffix)) {
+                continue;
+            }
+            String id = name.substring(0, name.length() - suffix.length());
+            File sharded = shardFile(dir, id);
+            sharded.getParentFile().mkdir();
+            Utils.join(dir, name).renameTo(sharded);
+        }
+    }
+
+    /**
+     * Moves every loose object, together with the contents of the
+     * existing packs, into a single new pack and deletes what it
+     * replaces. Versions of the same file are stored as deltas against
+     * each other, and so are commits and tree nodes. Objects are read
+     * again as they are written, so only a window of them is held in
+     * memory at once; nothing is deleted unless the new pack is whole.
+     */
+    static void repack() {
+        Repository.PACKS.mkdirs();
+        List<Pack> oldPacks = packs();
+
+        List<Pack.Entry> commits = new ArrayList<>();
+        for (String id : commitIds()) {
+            commits.add(new Pack.Entry(id, Pack.COMMIT,
+                    readCommit(id).length));
+        }
+        /* group blobs by the file name they were committed under, which
+         * the tree leaves record; each shared node is read only once*/
+        Map<String, String> blobGroups = new LinkedHashMap<>();
+        TreeSet<String> treeIds = looseIds(Repository.TREES, "");
+        for (Pack pack : oldPacks) {
+            treeIds.addAll(pack.ids(Pack.TREE));
+        }
+        List<Pack.Entry> trees = new ArrayList<>();
+        for (String id : treeIds) {
+            byte[] data = readTree(id);
+            trees.add(new Pack.Entry(id, Pack.TREE, data.length));
+            for (Map.Entry<String, String> e
+                    : Tree.leafEntries(data).entrySet()) {
+                blobGroups.putIfAbsent(e.getValue(), e.getKey());
+            }
+        }
+        TreeSet<String> blobIds = looseIds(Repository.BLOBS,
+                FLAT_BLOB_SUFFIX);
+        for (Pack pack : oldPacks) {
+            blobIds.addAll(pack.ids(Pack.BLOB));
+        }
+        Map<String, List<Pack.Entry>> groups = new HashMap<>();
+        List<byte[]> samples = new ArrayList<>();
+        for (String id : blobIds) {
+            String group = blobGroups.getOrDefault(id, "");
+            long size;
+            try (InputStream in = openBlob(id)) {
+                byte[] head = in.readNBytes(SAMPLE_BYTES);
+                size = head.length
+                        + in.transferTo(OutputStream.nullOutputStream());
+                if (samples.size() < DICT_SAMPLES) {
+                    samples.add(head);
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            groups.computeIfAbsent(group, k -> new ArrayList<>())
+                    .add(new Pack.Entry(id, Pack.BLOB, size));
+        }
+        byte[] dict = Codec.train(samples);
+        if (dict != null) {
+            Codec.saveDictionary(dict);
+        }
+
+        Pack.Writer writer = new Pack.Writer(Repository.PACKS,
+                commits.size() + trees.size() + blobIds.size(), dict);
+        Pack newPack;
+        try {
+            deltify(writer, commits);
+            deltify(writer, trees);
+            for (List<Pack.Entry> group : groups.values()) {
+                deltify(writer, group);
+            }
+            newPack = writer.finish();
+        } finally {
+            writer.abort();
+        }
+
+        /* everything is now in the new pack*/
+        for (Pack pack : oldPacks) {
+            if (!pack.getName().equals(newPack.getName())) {
+                pack.delete();
+            }
+        }
+        for (Pack.Entry e : commits) {
+            deleteLoose(Repository.COMMITS, "", e.getID());
+        }
+        for (Pack.Entry e : trees) {
+            deleteLoose(Repository.TREES, "", e.getID());
+        }
+        for (String id : blobIds) {
+            deleteLoose(Repository.BLOBS, FLAT_BLOB_SUFFIX, id);
+        }
+    }
+
+    /**
+     * Writes GROUP to WRITER largest first, storing each entry as a
+     * delta against whichever of the previous WINDOW entries gives the
+     * smallest delta, if any delta saves at least a quarter of the
+     * entry's size. Only the previous WINDOW entries are held in memory;
+     * objects larger than STREAM_LIMIT are streamed whole instead.
+     * @param writer new pack
+     * @param group similar objects
+     */
+    private static void deltify(Pack.Writer writer, List<Pack.Entry> group) {
+        group.sort((a, b) -> Long.compare(b.getSize(), a.getSize()));
+        List<Pack.Entry> bases = new ArrayList<>();
+        List<byte[]> baseData = new ArrayList<>();
+        for (Pack.Entry entry : group) {
+            if (entry.getSize() > STREAM_LIMIT) {
+                writer.add(entry, openBlob(entry.getID()));
+                continue;
+            }
+            byte[] data = read(entry.getType(), entry.getID());
+            int best = -1;
+            byte[] bestDelta = null;
+            for (int j = 0; j < bases.size(); j += 1) {
+                if (bases.get(j).getDepth() >= MAX_DEPTH) {
+                    continue;
+                }
+                byte[] delta = Delta.create(baseData.get(j), data);
+                if (bestDelta == null || delta.length < bestDelta.length) {
+                    best = j;
+                    bestDelta = delta;
+                }
+            }
+            if (best >= 0 && bestDelta.length < data.length * 3 / 4) {
+                writer.add(entry, bases.get(best), bestDelta);
+            } else {
+                writer.add(entry, data);
+            }
+            bases.add(entry);
+            baseData.add(data);
+            if (bases.size() > WINDOW) {
+                bases.remove(0);
+                baseData.remove(0);
+            }
+        }
+    }
+
+    /**
+     * Returns the contents of the object ID of the given TYPE.
+     * @param type Pack.COMMIT, Pack.BLOB or Pack.TREE
+     * @param id object id
+     * @return contents
+     */
+    private static byte[] read(int type, String id) {
+        if (type == Pack.COMMIT) {
+            return readCommit(id);
+        } else if (type == Pack.TREE) {
+            return readTree(id);
+        }
+        return readBlob(id);
+    }
+
+    /**
+     * Returns a stream of the object ID, which is either loose in DIR,
+     * sharded or flat with the file name suffix SUFFIX, or packed.
+     * @param dir commits or blobs directory
+     * @param suffix flat file name suffix
+     * @param id object id
+     * @return object contents
+     */
+    private static InputStream open(File dir, String suffix, String id) {
+        try {
+            return Codec.open(new FileInputStream(shardFile(dir, id)));
+        } catch (FileNotFoundException e) {
+            /* not sharded: try the flat layout, then the packs*/
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        File flat = Utils.join(dir, id + suffix);
+        try {
+            if (flat.isFile()) {
+                return Codec.open(new FileInputStream(flat));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return openPacked(id);
+    }
+
+    /**
+     * Hard-links FILE to the blob ID if it is loose and stored bare.
+     * @param id blob id
+     * @param file destination
+     * @return false if the blob cannot be linked
+     */
+    private static boolean link(String id, File file) {
+        File loose = looseFile(Repository.BLOBS, FLAT_BLOB_SUFFIX, id);
+        if (loose == null) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(loose.toPath(),
+                StandardOpenOption.READ)) {
+            if (storedOffset(in, 0) != 0) {
+                return false;
+            }
+            loose.setWritable(false, false);
+            Files.createLink(file.toPath(), loose.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            /* another file system, or links are not supported*/
+            return false;
+        }
+    }
+
+    /**
+     * Copies the blob ID into FILE with FileChannel.transferTo if it is
+     * stored uncompressed, loose or whole in a pack.
+     * @param id blob id
+     * @param file destination
+     * @return false if the blob is compressed or a delta
+     */
+    private static boolean transfer(String id, File file) {
+        File source = looseFile(Repository.BLOBS, FLAT_BLOB_SUFFIX, id);
+        long start = 0;
+        long length = -1;
+        if (source == null) {
+            for (Pack pack : packs()) {
+                long[] entry = pack.locate(id);
+                if (entry != null) {
+                    source = pack.getFile();
+                    start = entry[0];
+                    length = entry[1];
+                    break;
+                }
+            }
+            if (source == null) {
+                return false;
+            }
+        }
+        try (FileChannel in = FileChannel.open(source.toPath(),
+                StandardOpenOption.READ)) {
+            if (length < 0) {
+                length = in.size();
+            }
+            int header = storedOffset(in, start);
+            if (header < 0) {
+                return false;
+            }
+            try (FileChannel out = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long pos = start + header;
+                long end = start + length;
+                while (pos < end) {
+                    pos += in.transferTo(pos, end - pos, out);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns where the contents begin in the encoded object at START in
+     * CHANNEL, or -1 if it is compressed.
+     * @param channel open object or pack file
+     * @param start position of the encoded object
+     * @return offset of the contents from START or -1
+     */
+    private static int storedOffset(FileChannel channel, long start)
+            throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(Codec.MAX_HEADER);
+        while (head.hasRemaining()
+                && channel.read(head, start + head.position()) > 0) {
+            continue;
+        }
+        head.flip();
+        return Codec.storedOffset(head);
+    }
+
+    /**
+     * Returns the loose file of the object ID in DIR, sharded or flat with
+     * the file name suffix SUFFIX, or null if it is not loose.
+     * @param dir commits or blobs directory
+     * @param suffix flat file name suffix
+     * @param id object id
+     * @return loose file or null
+     */
+    private static File looseFile(File dir, String suffix, String id) {
+        File file = shardFile(dir, id);
+        if (file.isFile()) {
+            return file;
+        }
+        file = Utils.join(dir, id + suffix);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Returns the encoded object ID mapped from its loose or pack file, or
+     * null if it is too small to be worth mapping, is stored as a delta,
+     * or does not fit in one mapping.
+     * @param dir commits or blobs directory
+     * @param suffix flat file name suffix
+     * @param id object id
+     * @return read-only mapped object or null
+     */
+    private static ByteBuffer map(File dir, String suffix, String id) {
+        File file = looseFile(dir, suffix, id);
+        if (file != null) {
+            long length = file.length();
+            if (length < MAP_LIMIT || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        for (Pack pack : packs()) {
+            ByteBuffer mapped = pack.map(id, MAP_LIMIT);
+            if (mapped != null) {
+                return mapped;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the file holding the loose object ID in its shard of DIR.
+     * @param dir commits or blobs directory
+     * @param id object id
+     * @return sharded file
+     */
+    private static File shardFile(File dir, String id) {
+        return Utils.join(dir, id.substring(0, SHARD), id.substring(SHARD));
+    }
+
+    /**
+     * Saves DATA, compressed, as the loose object ID in its shard of DIR.
+     * @param dir commits or blobs directory
+     * @param id object id
+     * @param data object contents
+     */
+    private static void writeLoose(File dir, String id, byte[] data) {
+        File file = shardFile(dir, id);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, Codec.encode(data,
+                Codec.currentDictionary()));
+    }
+
+    /**
+     * Deletes the loose object ID from DIR, in whichever layout it is.
+     * @param dir commits or blobs directory
+     * @param suffix flat file name suffix
+     * @param id object id
+     */
+    private static void deleteLoose(File dir, String suffix, String id) {
+        if (!shardFile(dir, id).delete()) {
+            Utils.join(dir, id + suffix).delete();
+        }
+    }
+
+    /**
+     * Returns the ids of all loose objects in DIR, sharded or flat with
+     * the file name suffix SUFFIX.
+     * @param dir commits or blobs directory
+     * @param suffix flat file name suffix
+     * @return object ids
+     */
+    private static TreeSet<String> looseIds(File dir, String suffix) {
+        TreeSet<String> ids = new TreeSet<>();
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return ids;
+        }
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (entry.isDirectory() && name.length() == SHARD) {
+                String[] rest = entry.list();
+                if (rest != null) {
+                    for (String r : rest) {
+                        ids.add(name + r);
+                    }
+                }
+            } else if (name.endsWith(suffix) && entry.isFile()) {
+                ids.add(name.substring(0, name.length() - suffix.length()));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns a stream of the contents of the packed object ID.
+     * @param id object id
+     * @return contents
+     */
+    private static InputStream openPacked(String id) {
+        for (Pack pack : packs()) {
+            InputStream in = pack.open(id);
+            if (in != null) {
+                return in;
+            }
+        }
+        throw Utils.error("No object with id %s.", id);
+    }
+
+    /**
+     * Returns every pack in the packs directory.
+     * @return packs
+     */
+    private static List<Pack> packs() {
+        List<String> names = Utils.plainFilenamesIn(Repository.PACKS);
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        List<Pack> result = new ArrayList<>();
+        for (String name : names) {
+            if (name.endsWith(".idx")) {
+                result.add(new Pack(Utils.join(Repository.PACKS, name)));
+            }
+        }
+        return result;
+    }
+}
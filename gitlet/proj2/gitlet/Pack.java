@@ -0,0 +1,807 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents one pack: a .pack file holding many compressed objects back
+ * to back, some stored whole and some as deltas against an earlier object
+ * in the same pack, and a .idx file listing the objects sorted by id so that
+ * each one can be found with a binary search. Offsets and entry lengths
+ * are longs, so a pack may outgrow 2 GB. Objects stored whole are read
+ * as streams straight from the pack file; only deltas and the objects
+ * they apply to, which are kept small, are read into memory.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Pack {
+
+    /**
+     * Type tag of commit objects.
+     */
+    static final int COMMIT = 1;
+    /**
+     * Type tag of blob objects.
+     */
+    static final int BLOB = 2;
+    /**
+     * Type tag of tree nodes.
+     */
+    static final int TREE = 3;
+
+    /**
+     * Entry kind of objects stored whole.
+     */
+    private static final int FULL = 0;
+    /**
+     * Entry kind of objects stored as a delta.
+     */
+    private static final int DELTA = 1;
+    /**
+     * First bytes of every .pack file.
+     */
+    private static final String PACK_MAGIC = "GPAK";
+    /**
+     * First bytes of every .idx file.
+     */
+    private static final String IDX_MAGIC = "GIDX";
+    /**
+     * Format version of .pack files.
+     */
+    private static final int PACK_VERSION = 2;
+    /**
+     * Format version of .idx files.
+     */
+    private static final int IDX_VERSION = 1;
+    /**
+     * Number of fan-out slots, one per possible first id byte.
+     */
+    private static final int FANOUT = 256;
+    /**
+     * Length of a raw SHA-1 id.
+     */
+    private static final int ID_BYTES = 20;
+    /**
+     * Length of an index record: id, offset and type.
+     */
+    private static final int RECORD = ID_BYTES + 8 + 1;
+    /**
+     * Offset of the first index record.
+     */
+    private static final int RECORDS_START = 4 + 4 + 4 * FANOUT;
+    /**
+     * Size of the buffer a pack is read back through.
+     */
+    private static final int BUFFER = 64 * 1024;
+
+    /**
+     * The .pack file.
+     */
+    private final File packFile;
+    /**
+     * The .idx file.
+     */
+    private final File idxFile;
+
+    /**
+     * Pack constructor from its index file.
+     * @param idx file ending in .idx
+     */
+    Pack(File idx) {
+        idxFile = idx;
+        String name = idx.getName();
+        packFile = new File(idx.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+    }
+
+    /**
+     * One object written to a new pack.
+     */
+    static class Entry {
+        /**
+         * Object id.
+         */
+        private final String id;
+        /**
+         * COMMIT, BLOB or TREE.
+         */
+        private final int type;
+        /**
+         * Length of the object's contents.
+         */
+        private final long size;
+        /**
+         * Length of the delta chain ending at this entry.
+         */
+        private int depth;
+        /**
+         * Position of this entry in the pack once written.
+         */
+        private long offset;
+
+        /**
+         * Entry constructor.
+         * @param i object id
+         * @param t object type
+         * @param s length of the contents
+         */
+        Entry(String i, int t, long s) {
+            id = i;
+            type = t;
+            size = s;
+        }
+
+        /**
+         * Returns the length of the object's contents.
+         * @return size
+         */
+        long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the length of the delta chain ending here.
+         * @return depth
+         */
+        int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Returns the object id.
+         * @return id
+         */
+        String getID() {
+            return id;
+        }
+
+        /**
+         * Returns the object type.
+         * @return COMMIT, BLOB or TREE
+         */
+        int getType() {
+            return type;
+        }
+    }
+
+    /**
+     * Writes a new pack one entry at a time, so no more than one object
+     * need be held in memory. The pack is written to a temporary file in
+     * the packs directory and moved into place, under its checksum, only
+     * once finish has written all of it; until then, or if anything
+     * fails, no pack is visible.
+     */
+    static class Writer {
+        /**
+         * Packs directory.
+         */
+        private final File dir;
+        /**
+         * Compression dictionary, or null.
+         */
+        private final byte[] dict;
+        /**
+         * Entries the pack will hold.
+         */
+        private final int count;
+        /**
+         * Temporary pack file.
+         */
+        private final Path tmp;
+        /**
+         * Open temporary pack file.
+         */
+        private final FileChannel channel;
+        /**
+         * Buffered stream onto CHANNEL, counting what is written.
+         */
+        private final Counter counter;
+        /**
+         * Data stream onto COUNTER.
+         */
+        private final DataOutputStream out;
+        /**
+         * Entries written so far.
+         */
+        private final List<Entry> entries = new ArrayList<>();
+
+        /**
+         * Writer constructor for a pack in DIR of COUNT entries, each
+         * compressed with the codec that suits it best, using DICT if it
+         * is not null.
+         * @param d packs directory
+         * @param n number of entries
+         * @param dic compression dictionary or null
+         */
+        Writer(File d, int n, byte[] dic) {
+            dir = d;
+            dict = dic;
+            count = n;
+            try {
+                tmp = Files.createTempFile(dir.toPath(), "pack-", ".tmp");
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            try {
+                channel = FileChannel.open(tmp, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                counter = new Counter(new BufferedOutputStream(
+                        Channels.newOutputStream(channel)));
+                out = new DataOutputStream(counter);
+                out.writeBytes(PACK_MAGIC);
+                out.writeInt(PACK_VERSION);
+                out.writeInt(count);
+            } catch (IOException e) {
+                abort();
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * Writes ENTRY whole, with the contents DATA.
+         * @param entry entry
+         * @param data contents
+         */
+        void add(Entry entry, byte[] data) {
+            start(entry, FULL);
+            write(Codec.encode(data, dict));
+        }
+
+        /**
+         * Writes ENTRY as DELTA against BASE, which was written earlier.
+         * @param entry entry
+         * @param base entry the delta applies to
+         * @param delta delta from BASE's contents to ENTRY's
+         */
+        void add(Entry entry, Entry base, byte[] delta) {
+            start(entry, DELTA);
+            try {
+                out.writeLong(base.offset);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            entry.depth = base.depth + 1;
+            write(Codec.encode(delta, dict));
+        }
+
+        /**
+         * Writes ENTRY whole, deflating its contents as they are read
+         * from IN, which is closed. Its length is written once known.
+         * @param entry entry
+         * @param in contents
+         */
+        void add(Entry entry, InputStream in) {
+            start(entry, FULL);
+            try (InputStream from = in) {
+                long lengthAt = counter.count;
+                out.writeLong(0);
+                OutputStream body = new FilterOutputStream(counter) {
+                    @Override
+                    public void write(byte[] b, int off, int len)
+                            throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                };
+                try (OutputStream encoder = Codec.encoder(body,
+                        Codec.DEFLATE, entry.size)) {
+                    if (from.transferTo(encoder) != entry.size) {
+                        throw Utils.error("Object %s changed while it was "
+                                + "being packed.", entry.id);
+                    }
+                }
+                long length = counter.count - lengthAt - 8;
+                out.flush();
+                channel.write(ByteBuffer.allocate(8).putLong(0, length),
+                        lengthAt);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * Writes the type and KIND of ENTRY, which starts here.
+         * @param entry entry
+         * @param kind FULL or DELTA
+         */
+        private void start(Entry entry, int kind) {
+            if (entries.size() == count) {
+                throw Utils.error("Pack holds only %d objects.", count);
+            }
+            entry.offset = counter.count;
+            entries.add(entry);
+            try {
+                out.writeByte(entry.type);
+                out.writeByte(kind);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * Writes the encoded object STORED, length first.
+         * @param stored encoded object
+         */
+        private void write(byte[] stored) {
+            try {
+                out.writeLong(stored.length);
+                out.write(stored);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * Appends the checksum of everything written, syncs the pack and
+         * moves it into place, then writes its index. Returns the new
+         * pack. Throws, leaving no pack behind, if it holds fewer objects
+         * than promised or cannot be written.
+         * @return the new pack
+         */
+        Pack finish() {
+            try {
+                if (entries.size() != count) {
+                    throw Utils.error("Pack holds %d of %d objects.",
+                            entries.size(), count);
+                }
+                out.flush();
+                byte[] digest = checksum();
+                channel.write(ByteBuffer.wrap(digest), counter.count);
+                channel.force(true);
+                channel.close();
+                String name = Utils.bytesToHex(digest, 0, digest.length);
+                Pack pack = new Pack(new File(dir, "pack-" + name + ".idx"));
+                Files.move(tmp, pack.packFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                pack.writeIndex(entries);
+                return pack;
+            } catch (IOException | NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(e);
+            } finally {
+                abort();
+            }
+        }
+
+        /**
+         * Closes and deletes the temporary pack, if it is still there.
+         */
+        void abort() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * Returns the SHA-1 of the pack written so far, read back from
+         * the file, since lengths are filled in after their entries.
+         * @return checksum
+         */
+        private byte[] checksum() throws IOException,
+                NoSuchAlgorithmException {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+            for (long pos = 0; pos < counter.count; pos += buf.position()) {
+                buf.clear();
+                buf.limit((int) Math.min(BUFFER, counter.count - pos));
+                if (channel.read(buf, pos) < 0) {
+                    throw new IOException("pack cut short");
+                }
+                md.update(buf.array(), 0, buf.position());
+            }
+            return md.digest();
+        }
+    }
+
+    /**
+     * A stream that counts the bytes written through it.
+     */
+    private static class Counter extends FilterOutputStream {
+        /**
+         * Bytes written so far.
+         */
+        private long count;
+
+        /**
+         * Counter constructor.
+         * @param o destination
+         */
+        Counter(OutputStream o) {
+            super(o);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Writes the sorted index of ENTRIES, which have been written to
+     * this pack. The index goes to a temporary file that is moved into
+     * place, so readers only ever see a complete index.
+     * @param entries objects in this pack
+     */
+    private void writeIndex(List<Entry> entries) throws IOException {
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, (a, b) -> a.id.compareTo(b.id));
+        int[] fanout = new int[FANOUT];
+        for (Entry e : sorted) {
+            fanout[Integer.parseInt(e.id.substring(0, 2), 16)] += 1;
+        }
+        for (int i = 1; i < FANOUT; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+        Path tmp = Files.createTempFile(idxFile.getParentFile().toPath(),
+                "idx-", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeBytes(IDX_MAGIC);
+                out.writeInt(IDX_VERSION);
+                for (int count : fanout) {
+                    out.writeInt(count);
+                }
+                for (Entry e : sorted) {
+                    out.write(Utils.hexToBytes(e.id));
+                    out.writeLong(e.offset);
+                    out.writeByte(e.type);
+                }
+            }
+            Files.move(tmp, idxFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Returns a stream of the contents of the object with the given ID,
+     * or null if this pack does not hold it. An object stored whole is
+     * decoded as it is read from the pack file; one stored as a delta is
+     * rebuilt in memory.
+     * @param id full object id
+     * @return contents or null
+     */
+    InputStream open(String id) {
+        try (RandomAccessFile idx = new RandomAccessFile(idxFile, "r")) {
+            int record = search(idx, Utils.hexToBytes(id));
+            if (record < 0) {
+                return null;
+            }
+            idx.seek(RECORDS_START + (long) record * RECORD + ID_BYTES);
+            long offset = idx.readLong();
+            try (RandomAccessFile pack = new RandomAccessFile(packFile, "r")) {
+                checkVersion(pack);
+                pack.seek(offset + 1);
+                if (pack.readByte() != FULL) {
+                    return new ByteArrayInputStream(readAt(pack, offset));
+                }
+                long length = pack.readLong();
+                FileChannel channel = FileChannel.open(packFile.toPath(),
+                        StandardOpenOption.READ);
+                try {
+                    return Codec.open(new Slice(channel,
+                            pack.getFilePointer(), length));
+                } catch (IOException | RuntimeException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the encoded form of the object ID mapped straight from the
+     * pack file, or null if this pack does not hold it, it is stored as a
+     * delta, or it is smaller than LIMIT bytes and cheaper to read.
+     * @param id full object id
+     * @param limit smallest entry worth mapping
+     * @return read-only mapped entry or null
+     */
+    ByteBuffer map(String id, long limit) {
+        long[] entry = locate(id);
+        if (entry == null || entry[1] < limit) {
+            return null;
+        }
+        try (RandomAccessFile pack = new RandomAccessFile(packFile, "r")) {
+            return pack.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    entry[0], entry[1]);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the position and length in the pack file of the encoded
+     * object ID, or null if this pack does not hold it or stores it as a
+     * delta.
+     * @param id full object id
+     * @return {position, length} or null
+     */
+    long[] locate(String id) {
+        try (RandomAccessFile idx = new RandomAccessFile(idxFile, "r")) {
+            int record = search(idx, Utils.hexToBytes(id));
+            if (record < 0) {
+                return null;
+            }
+            idx.seek(RECORDS_START + (long) record * RECORD + ID_BYTES);
+            long offset = idx.readLong();
+            try (RandomAccessFile pack = new RandomAccessFile(packFile, "r")) {
+                checkVersion(pack);
+                pack.seek(offset + 1);
+                if (pack.readByte() != FULL) {
+                    return null;
+                }
+                long length = pack.readLong();
+                return new long[]{pack.getFilePointer(), length};
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the .pack file.
+     * @return pack file
+     */
+    File getFile() {
+        return packFile;
+    }
+
+    /**
+     * Returns the ids of all objects of the given TYPE in this pack,
+     * in sorted order.
+     * @param type COMMIT, BLOB or TREE
+     * @return ids
+     */
+    List<String> ids(int type) {
+        List<String> result = new ArrayList<>();
+        byte[] records;
+        try (RandomAccessFile idx = new RandomAccessFile(idxFile, "r")) {
+            records = new byte[(int) (idx.length() - RECORDS_START)];
+            idx.seek(RECORDS_START);
+            idx.readFully(records);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        for (int r = 0; r + RECORD <= records.length; r += RECORD) {
+            if (records[r + RECORD - 1] == type) {
+                result.add(Utils.bytesToHex(records, r, ID_BYTES));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of the objects of the given TYPE in this pack that
+     * start with PREFIX, which is at least two characters long, in sorted
+     * order. Only the fan-out range of the first id byte is read.
+     * @param type COMMIT, BLOB or TREE
+     * @param prefix abbreviated id
+     * @return ids
+     */
+    List<String> ids(int type, String prefix) {
+        List<String> result = new ArrayList<>();
+        int first = Integer.parseInt(prefix.substring(0, 2), 16);
+        try (RandomAccessFile idx = new RandomAccessFile(idxFile, "r")) {
+            int lo = 0;
+            if (first > 0) {
+                idx.seek(8 + 4L * (first - 1));
+                lo = idx.readInt();
+            }
+            idx.seek(8 + 4L * first);
+            int hi = idx.readInt();
+            byte[] records = new byte[(hi - lo) * RECORD];
+            idx.seek(RECORDS_START + (long) lo * RECORD);
+            idx.readFully(records);
+            for (int r = 0; r < records.length; r += RECORD) {
+                String id = Utils.bytesToHex(records, r, ID_BYTES);
+                if (records[r + RECORD - 1] == type
+                        && id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the name of this pack, which is derived from its checksum.
+     * @return pack name
+     */
+    String getName() {
+        return packFile.getName();
+    }
+
+    /**
+     * Deletes both files of this pack.
+     */
+    void delete() {
+        idxFile.delete();
+        packFile.delete();
+    }
+
+    /**
+     * Returns the record number of ID in IDX, or -1 if it is absent.
+     * The fan-out table narrows the search to ids sharing the first byte.
+     * @param idx open index file
+     * @param id raw id
+     * @return record number or -1
+     */
+    private static int search(RandomAccessFile idx, byte[] id)
+            throws IOException {
+        int first = id[0] & 0xff;
+        int lo = 0;
+        if (first > 0) {
+            idx.seek(8 + 4L * (first - 1));
+            lo = idx.readInt();
+        }
+        idx.seek(8 + 4L * first);
+        int hi = idx.readInt() - 1;
+        byte[] probe = new byte[ID_BYTES];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            idx.seek(RECORDS_START + (long) mid * RECORD);
+            idx.readFully(probe);
+            int cmp = Arrays.compareUnsigned(probe, id);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the object whose entry starts at OFFSET in PACK, applying
+     * its chain of deltas. Only deltas and their bases are read this way,
+     * and gc never deltifies an object too large to hold in memory.
+     * @param pack open pack file
+     * @param offset entry position
+     * @return contents
+     */
+    private static byte[] readAt(RandomAccessFile pack, long offset)
+            throws IOException {
+        pack.seek(offset + 1);
+        int kind = pack.readByte();
+        if (kind == FULL) {
+            return Codec.decode(readEntry(pack));
+        }
+        long baseOffset = pack.readLong();
+        byte[] delta = readEntry(pack);
+        return Delta.apply(readAt(pack, baseOffset), Codec.decode(delta));
+    }
+
+    /**
+     * Reads an encoded entry, length first, from PACK.
+     * @param pack open pack file
+     * @return encoded entry
+     */
+    private static byte[] readEntry(RandomAccessFile pack)
+            throws IOException {
+        long length = pack.readLong();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw Utils.error("Pack entry of %d bytes is too large to read "
+                    + "whole.", length);
+        }
+        byte[] data = new byte[(int) length];
+        pack.readFully(data);
+        return data;
+    }
+
+    /**
+     * Checks that PACK is of the format this version writes.
+     * @param pack open pack file
+     */
+    private static void checkVersion(RandomAccessFile pack)
+            throws IOException {
+        pack.seek(PACK_MAGIC.length());
+        int version = pack.readInt();
+        if (version != PACK_VERSION) {
+            throw Utils.error("Unknown pack format %d.", version);
+        }
+    }
+
+    /**
+     * Reads LENGTH bytes of a pack file from START, and closes the file
+     * when it is closed.
+     */
+    private static class Slice extends InputStream {
+        /**
+         * Open pack file.
+         */
+        private final FileChannel channel;
+        /**
+         * Position of the next byte read.
+         */
+        private long position;
+        /**
+         * Bytes left to read.
+         */
+        private long remaining;
+
+        /**
+         * Slice constructor.
+         * @param c open pack file
+         * @param start first byte
+         * @param length number of bytes
+         */
+        Slice(FileChannel c, long start, long length) {
+            channel = c;
+            position = start;
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(b, off,
+                    (int) Math.min(len, remaining));
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new IOException("pack cut short");
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
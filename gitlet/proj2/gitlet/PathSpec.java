@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Expands the operands of add and rm into file names. An operand naming
+ * a known file stands for that file; one naming a directory stands for
+ * every known file under it (. for all of them); one holding *, ?, [ or
+ * { that names no file is a glob matched against the known files, where
+ * * and ? do not cross a /. Anything else stands for itself, so that a
+ * command can report a missing file. Names are relative to the working
+ * directory and separated by /. The known files are asked for only when
+ * an operand is a directory or a glob, so naming a file costs one stat.
+ *
+ * @author Swetha Karthikeyan
+ */
+class PathSpec {
+
+    /**
+     * Returns the names OPERAND stands for among the file names KNOWN
+     * gives, with ROOT the working directory, in sorted order. An operand
+     * outside ROOT stands for nothing.
+     * @param root working directory
+     * @param operand path, directory or glob
+     * @param known gives the file names it may stand for
+     * @return file names
+     */
+    static TreeSet<String> expand(File root, String operand,
+                                  Supplier<Collection<String>> known) {
+        TreeSet<String> result = new TreeSet<>();
+        String name = relative(root, operand);
+        if (name == null) {
+            return result;
+        }
+        File path = new File(root, name);
+        boolean dir = path.isDirectory();
+        /* a file, or a name that matches nothing, stands for itself
+         * without the known files being asked for*/
+        if (!dir && !(isGlob(operand) && !path.exists())
+                || known.get().contains(name)) {
+            result.add(name);
+        } else if (dir) {
+            String prefix = name.isEmpty() ? "" : name + "/";
+            for (String file : known.get()) {
+                if (file.startsWith(prefix)) {
+                    result.add(file);
+                }
+            }
+        } else {
+            PathMatcher matcher = FileSystems.getDefault()
+                    .getPathMatcher("glob:" + name);
+            for (String file : known.get()) {
+                if (matcher.matches(Path.of(file))) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns OPERAND relative to ROOT, separated by /, or null if it is
+     * outside ROOT. ROOT itself is the empty name.
+     * @param root working directory
+     * @param operand path
+     * @return file name or null
+     */
+    private static String relative(File root, String operand) {
+        Path base = root.toPath().toAbsolutePath().normalize();
+        Path path = base.resolve(operand).normalize();
+        if (!path.startsWith(base)) {
+            return null;
+        }
+        return base.relativize(path).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns whether OPERAND holds a glob character.
+     * @param operand path or glob
+     * @return true if a glob
+     */
+    private static boolean isGlob(String operand) {
+        for (char c : operand.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
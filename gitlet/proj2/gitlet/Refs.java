@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The branches and the current branch, kept in memory once read. Each
+ * branch is a file in .gitlet/branches holding its commit id, and
+ * HEAD.txt there names the current branch. Changes are written as they
+ * are made, unless writes are deferred, in which case they are held
+ * until flush so that many commands in one process write each branch
+ * once.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Refs {
+
+    /**
+     * Name of the file naming the current branch.
+     */
+    private static final String HEAD = "HEAD.txt";
+
+    /**
+     * The branches directory.
+     */
+    private final File dir;
+    /**
+     * Commit id of each branch, or null until read.
+     */
+    private TreeMap<String, String> branches;
+    /**
+     * The current branch, or null until read.
+     */
+    private String current;
+    /**
+     * Branches changed or removed since they were last written.
+     */
+    private final TreeSet<String> dirty = new TreeSet<>();
+    /**
+     * Whether the current branch changed since it was last written.
+     */
+    private boolean headDirty;
+    /**
+     * Whether changes wait for flush.
+     */
+    private boolean deferred;
+
+    /**
+     * Refs constructor. Nothing is read until first used.
+     * @param branchDir branches directory
+     */
+    Refs(File branchDir) {
+        dir = branchDir;
+    }
+
+    /**
+     * Returns the name of the current branch.
+     * @return branch name
+     */
+    String head() {
+        load();
+        return current;
+    }
+
+    /**
+     * Makes BRANCH the current branch.
+     * @param branch branch name
+     */
+    void setHead(String branch) {
+        load();
+        current = branch;
+        headDirty = true;
+        write();
+    }
+
+    /**
+     * Returns the commit id of BRANCH, or null if there is no such
+     * branch.
+     * @param branch branch name
+     * @return commit id or null
+     */
+    String get(String branch) {
+        load();
+        return branches.get(branch);
+    }
+
+    /**
+     * Points BRANCH, which may be new, at the commit ID.
+     * @param branch branch name
+     * @param id commit id
+     */
+    void set(String branch, String id) {
+        load();
+        branches.put(branch, id);
+        dirty.add(branch);
+        write();
+    }
+
+    /**
+     * Deletes BRANCH.
+     * @param branch branch name
+     */
+    void remove(String branch) {
+        load();
+        branches.remove(branch);
+        dirty.add(branch);
+        write();
+    }
+
+    /**
+     * Returns every branch name in sorted order.
+     * @return branch names
+     */
+    List<String> names() {
+        load();
+        return new ArrayList<>(branches.keySet());
+    }
+
+    /**
+     * Holds changes until flush if DEFER, or writes them as they are made
+     * if not, writing any held now.
+     * @param defer whether to hold changes
+     */
+    void defer(boolean defer) {
+        deferred = defer;
+        write();
+    }
+
+    /**
+     * Writes every held change.
+     */
+    void flush() {
+        if (headDirty) {
+            Utils.writeContents(Utils.join(dir, HEAD), current);
+            headDirty = false;
+        }
+        for (String branch : dirty) {
+            String id = branches.get(branch);
+            if (id == null) {
+                Utils.join(dir, branch).delete();
+            } else {
+                Utils.writeContents(Utils.join(dir, branch), id);
+            }
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Writes held changes unless writes are deferred.
+     */
+    private void write() {
+        if (!deferred) {
+            flush();
+        }
+    }
+
+    /**
+     * Reads the branches, if they have not been read yet.
+     */
+    private void load() {
+        if (branches != null) {
+            return;
+        }
+        branches = new TreeMap<>();
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            String contents = Utils.readContentsAsString(
+                    Utils.join(dir, name));
+            if (name.equals(HEAD)) {
+                current = contents;
+            } else {
+                branches.put(name, contents);
+            }
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static gitlet.Utils.join;
 
@@ -37,7 +50,7 @@ public class Repository {
      */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     /**
-     * Stage directory has stage.txt.
+     * Stage directory has the staging index.
      */
     public static final File STAGING_AREA = Utils.join(GITLET_DIR,
             "staging_area");
@@ -51,10 +64,79 @@ public class Repository {
      */
     public static final File BLOBS = Utils.join(GITLET_DIR,
             "blobs");
+    /**
+     * Trees directory has the tree nodes of commit snapshots.
+     */
+    public static final File TREES = Utils.join(GITLET_DIR, "trees");
     /**
      * Branches directory has branches and head.txt.
      */
     public static final File BRANCHES = Utils.join(GITLET_DIR, "branches");
+    /**
+     * Packs directory has packed blobs and commits.
+     */
+    public static final File PACKS = Utils.join(GITLET_DIR, "packs");
+    /**
+     * Exists once no loose objects are left in the flat layout.
+     */
+    public static final File SHARDED = Utils.join(GITLET_DIR, "sharded");
+    /**
+     * Dictionaries directory has trained compression dictionaries.
+     */
+    public static final File DICTS = Utils.join(GITLET_DIR, "dictionaries");
+    /**
+     * Bloom filter over the ids of stored blobs.
+     */
+    public static final File BLOOM = Utils.join(GITLET_DIR, "blobs.bloom");
+    /**
+     * Every stored blob id, confirming hits in the Bloom filter.
+     */
+    public static final File BLOB_IDS = Utils.join(GITLET_DIR, "blobs.ids");
+    /**
+     * Repository settings.
+     */
+    public static final File CONFIG = Utils.join(GITLET_DIR, "config");
+    /**
+     * Stat data and blob ids of working files.
+     */
+    public static final File STAT_CACHE = Utils.join(GITLET_DIR,
+            "stat-cache");
+    /**
+     * Listings of working directories.
+     */
+    public static final File DIR_CACHE = Utils.join(GITLET_DIR,
+            "dir-cache");
+    /**
+     * Sparse patterns, one per line.
+     */
+    public static final File SPARSE = Utils.join(GITLET_DIR, "sparse");
+    /**
+     * Socket of the daemon running commands for this repository.
+     */
+    public static final File DAEMON = Utils.join(GITLET_DIR, "daemon.sock");
+    /**
+     * Parents, generation numbers and times of every commit.
+     */
+    public static final File GRAPH = Utils.join(GITLET_DIR, "commit-graph");
+    /**
+     * Every commit id, sorted, for resolving abbreviated ids.
+     */
+    public static final File COMMIT_IDS = Utils.join(GITLET_DIR,
+            "commit-ids");
+    /**
+     * Commit ids added since commit-ids was last sorted.
+     */
+    public static final File COMMIT_IDS_LOG = Utils.join(GITLET_DIR,
+            "commit-ids.log");
+    /**
+     * Commit ids filed by message and message term.
+     */
+    public static final File MESSAGES = Utils.join(GITLET_DIR, "messages");
+    /**
+     * Message postings added since messages was last sorted.
+     */
+    public static final File MESSAGES_LOG = Utils.join(GITLET_DIR,
+            "messages.log");
     /**
      * HEAD.txt has the main branch name.
      */
@@ -64,16 +146,70 @@ public class Repository {
      Has a stage.
      */
     private Staging stage;
+    /**
+     * Blobs already stored, so adding known content writes nothing.
+     */
+    private final ObjectFilter known = new ObjectFilter(BLOOM, BLOB_IDS);
+    /**
+     * Repository settings, read when first needed.
+     */
+    private final Config config = new Config(CONFIG);
+    /**
+     * The commit history, read when first walked.
+     */
+    private final CommitGraph graph = new CommitGraph(GRAPH);
+    /**
+     * Blob ids of working files whose stat data has not changed.
+     */
+    private final StatCache statCache = new StatCache(STAT_CACHE);
+    /**
+     * Listings of working directories whose entries have not changed.
+     */
+    private final DirCache dirCache = new DirCache(DIR_CACHE);
+    /**
+     * Which tracked files are kept in the working directory.
+     */
+    private Sparse sparse = new Sparse(SPARSE);
+    /**
+     * Files in the working directory, or null until scanned in the
+     * current command.
+     */
+    private Set<String> workingFiles;
+    /**
+     * Whether saves of the staging area wait for flush.
+     */
+    private boolean deferWrites;
+    /**
+     * The branches and the current branch.
+     */
+    private final Refs refs = new Refs(BRANCHES);
+    /**
+     * Finds and remembers split points in the commit graph.
+     */
+    private final MergeBase mergeBases = new MergeBase(graph);
+    /**
+     * Resolves abbreviated commit ids.
+     */
+    private final CommitIndex commitIndex = new CommitIndex(COMMIT_IDS,
+            COMMIT_IDS_LOG);
+    /**
+     * Finds commits by message.
+     */
+    private final MessageIndex messages = new MessageIndex(MESSAGES,
+            MESSAGES_LOG);
+    /**
+     * Commits decoded so far, up to core.commitCache of them.
+     */
+    private final CommitCache commitCache = new CommitCache(
+            config.getInt("core.commitCache", 1024));
 
 
     /**
      * Constructor for Repository.
      **/
     public Repository() {
-        if (new File(CWD.getPath()
-                + "/.gitlet/staging_area/stage.txt").exists()) {
-            stage = Utils.readObject((new File(CWD.getPath()
-                    + "/.gitlet/staging_area/stage.txt")), Staging.class);
+        if (Staging.exists()) {
+            stage = Staging.readStage();
         }
     }
 
@@ -104,31 +240,26 @@ public class Repository {
         STAGING_AREA.mkdir();
         COMMITS.mkdir();
         BLOBS.mkdir();
+        TREES.mkdir();
         BRANCHES.mkdir();
+        PACKS.mkdir();
+        Utils.writeContents(SHARDED, "");
 
-        try {
-            /* write HEAD.txt with branch name "main" contents */
-            Files.write(Paths.get(CWD.getPath()
-                    + "/.gitlet/branches/HEAD.txt"), ("main").getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        /* write HEAD.txt with branch name "main" contents */
+        refs.setHead("main");
 
         Commit firstCommit = new Commit();
         /* save commit */
         firstCommit.save();
+        graph.add(firstCommit);
+        commitIndex.add(firstCommit.getID());
+        messages.add(firstCommit.getID(), firstCommit.getMessage());
         /* save branch main with commit id contents*/
-        try {
-            Files.write(Paths.get(CWD.getPath()
-                            + "/.gitlet/branches/main"),
-                    (firstCommit.getID()).getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        refs.set("main", firstCommit.getID());
 
         stage = new Staging();
         /*save stage*/
-        stage.save();
+        saveStage();
     }
 
 
@@ -144,55 +275,83 @@ public class Repository {
      *  changed, added, and then changed back to it’s original version). The
      *  file will no longer be staged for removal (see gitlet rm), if it was
      *  at the time of the command.
+     * Each operand may be a file, a directory (every working file under
+     * it) or a glob; nothing is staged if any names no file. Files whose
+     * stat data shows they are stored are not read, the rest are stored
+     * on a pool of threads, and the stage is saved once.
      * @param args string[]
      */
     public void add(String[] args) {
-        String fileName = args[1];
-        File addFile = Utils.join(CWD, fileName);
-        if (!addFile.exists()) {
-            System.out.println("File does not exist.");
-            return;
-        }
-
-        /* get id of blob we want to add*/
-        String blobid = Utils.sha1(Utils.readContentsAsString(addFile));
-        boolean commitContains = false;
-
-        /* get the current commit using commit id and read from commits*/
-        Commit curr = Commit.readCommit(getCurrentCommit());
-        /* if commit blobmap already has the file we want to add*/
-        if (curr.getMap().containsKey(fileName)) {
-            /* if current file is identical to version in curr commit*/
-            if (curr.getMap().get(fileName).equals(blobid)) {
-                commitContains = true;
-                /*dont stage to be added and remove from staging area if there*/
-                stage.getAdded().remove(fileName);
-                /* if the file is in the removed stage, get rid of it*/
-                stage.getRemoved().remove(fileName);
+        TreeSet<String> names = new TreeSet<>();
+        for (int i = 1; i < args.length; i += 1) {
+            TreeSet<String> found = PathSpec.expand(CWD, args[i],
+                    this::workingFiles);
+            if (found.isEmpty()) {
+                System.out.println("File does not exist.");
+                return;
             }
-            /* if not identical, replace it in the commit*/
+            for (String name : found) {
+                if (!Utils.join(CWD, name).isFile()) {
+                    System.out.println("File does not exist.");
+                    return;
+                }
+            }
+            names.addAll(found);
         }
-        /* if stage has it, replace it*/
-        if (!commitContains) {
-            if (stage.getAdded().containsKey(fileName)) {
-                stage.getAdded().replace(fileName, blobid);
+
+        /* store the blobs and get their ids, reading each file only once,
+         * or not at all if its stat data shows it is already stored*/
+        HashMap<String, String> ids = new HashMap<>();
+        HashMap<String, long[]> stats = new HashMap<>();
+        List<String> unread = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (String name : names) {
+            File file = Utils.join(CWD, name);
+            long[] stat = StatCache.stat(file);
+            String blobid = statCache.get(name, stat);
+            if (blobid == null || !known.contains(blobid)) {
+                unread.add(name);
+                files.add(file);
+                stats.put(name, stat);
             } else {
-                /* if not already in commit or stage, add to stage*/
-                stage.add(fileName, blobid);
+                ids.put(name, blobid);
             }
         }
+        String[] stored = ObjectStore.ingestBlobs(files, known, threads());
+        for (int i = 0; i < stored.length; i += 1) {
+            ids.put(unread.get(i), stored[i]);
+            statCache.put(unread.get(i), stored[i], stats.get(unread.get(i)));
+        }
 
-        /* make sure it is no longer staged for removal*/
-        stage.getRemoved().remove(fileName);
+        /* get the current commit using commit id and read from commits*/
+        Map<String, String> tracked = commitCache.get(getCurrentCommit())
+                .getMap();
+        for (String name : names) {
+            stageFile(name, ids.get(name), tracked.get(name));
+        }
 
         /* save stage*/
-        stage.save();
+        saveStage();
+    }
 
-        /*save blob as blobid.txt*/
-        File newBlob = new File((CWD.getPath()
-                + "/.gitlet/blobs/" + blobid + ".txt"));
-        /* add the contents of blob in saved blob*/
-        Utils.writeContents(newBlob, Utils.readContents(addFile));
+    /**
+     * Stages the blob BLOBID as FILENAME, or unstages FILENAME if the
+     * current commit tracks it as TRACKED, the same blob, and no longer
+     * stages it for removal.
+     * @param fileName file name
+     * @param blobid blob id
+     * @param tracked blob id in the current commit, or null
+     */
+    private void stageFile(String fileName, String blobid, String tracked) {
+        /* if current file is identical to version in curr commit*/
+        if (blobid.equals(tracked)) {
+            /*dont stage to be added, and no longer staged for removal*/
+            stage.unstage(fileName);
+        } else {
+            /* staged to be added, replacing any earlier version, and no
+             * longer staged for removal*/
+            stage.add(fileName, blobid);
+        }
     }
 
     /**
@@ -224,44 +383,43 @@ public class Repository {
         }
         String commitID = getCurrentCommit();
         /*get the current commit using commit id and read from commits*/
-        Commit curr = Commit.readCommit(commitID);
+        Commit curr = commitCache.get(commitID);
 
-        /* get all the files in the current commit*/
-        HashMap<String, String> currentBlobs = curr.getMap();
+        /* the staged changes to the files in the current commit*/
+        HashMap<String, String> changes = new HashMap<>();
         /* add what needs to be added*/
-        currentBlobs.putAll(stage.getAdded());
+        changes.putAll(stage.getAdded());
         /* get rid of blobs that need to be removed*/
         /* going through get removed*/
         for (String name : stage.getRemoved()) {
-            currentBlobs.remove(name);
+            changes.put(name, null);
         }
+        /* only the tree nodes holding changed files are rewritten*/
+        String tree = Tree.update(curr.getTree(), changes);
         ArrayList<String> parent = new ArrayList<String>();
         parent.add(commitID);
         if (message.startsWith("Merged")) {
             int intoIndex = message.indexOf(" into ");
             String branchname = message.substring(7, intoIndex);
-            String branchcomid = Utils.readContentsAsString(
-                    new File(CWD.getPath()
-                    + "/.gitlet/branches/" + branchname));
+            String branchcomid = refs.get(branchname);
             parent.add(branchcomid);
         }
         /* make new commit with added blobs*/
-        Commit newCommit = new Commit(message, parent, currentBlobs);
+        Commit newCommit = new Commit(message, parent, tree);
 
         /* clear stage after commit*/
         stage.clear();
 
         /*save everything*/
-        stage.save();
+        saveStage();
         newCommit.save();
+        commitCache.put(newCommit);
+        graph.add(newCommit);
+        commitIndex.add(newCommit.getID());
+        messages.add(newCommit.getID(), newCommit.getMessage());
 
         /* add new commit to branch*/
-        try {
-            Files.write(Paths.get((CWD.getPath() + "/.gitlet/branches/"
-                    + (getCurrBranchName()))), (newCommit.getID()).getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        refs.set(getCurrBranchName(), newCommit.getID());
     }
 
     /**
@@ -274,24 +432,17 @@ public class Repository {
      */
     public void checkoutFileName(String[] args) {
         String name = args[2];
-        Commit curr = Commit.readCommit(getCurrentCommit());
+        Commit curr = commitCache.get(getCurrentCommit());
         /* If the file does not exist in the commit, abort,
         printing the error message*/
-        if (!curr.getMap().containsKey(name)) {
+        String blob = curr.getBlob(name);
+        if (blob == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        /* if the file is already there in CWD, delete it and write a new one
-           (dont make new file with that path if it doesnt exist bc error)*/
-        if ((new File(CWD.getPath() + name)).exists()) {
-            (new File(CWD.getPath() + name)).delete();
-        }
-        /* get the blob file from current commit blobmap*/
-        File newBlob = new File(CWD.getPath()
-                + "/.gitlet/blobs/" + curr.getMap().get(name) + ".txt");
-        /*make a new file and write the zlob contents into it*/
-        File newFile = new File(CWD.getPath(), name);
-        Utils.writeContents(newFile, Utils.readContents(newBlob));
+        /*write the blob contents from current commit blobmap over the
+        file, which is replaced only once they are all written*/
+        writeWorkingFile(name, blob);
     }
 
     /**
@@ -307,8 +458,7 @@ public class Repository {
     public void checkoutBranch(String[] args) {
         String branchname = args[1];
         /*if that branch name doesnt exists*/
-        if (!(new File(CWD.getPath()
-                + "/.gitlet/branches/" + branchname)).exists()) {
+        if (refs.get(branchname) == null) {
             System.out.println("No such branch exists.");
             return;
         }
@@ -318,71 +468,19 @@ public class Repository {
             return;
         }
         /* commit at given branch*/
-        String branchcomid = Utils.readContentsAsString(new File(CWD.getPath()
-                + "/.gitlet/branches/" + branchname));
-        Commit branchcom = Commit.readCommit(branchcomid);
+        String branchcomid = refs.get(branchname);
+        Commit branchcom = commitCache.get(branchcomid);
         /* current commit*/
-        Commit curr = Commit.readCommit(getCurrentCommit());
-        /* check if any untracked files*/
-        List<String> directoryblob = Utils.plainFilenamesIn(CWD.getPath());
-        for (String dirblob : directoryblob) {
-            if (!curr.getMap().containsKey(dirblob)) {
-                if (branchcom.getMap().containsKey(dirblob)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    return;
-                }
-            }
-        }
-
-        /*remove any files that are not in the branch in directory*/
-        for (String dirblob : directoryblob) {
-            if (!branchcom.getMap().containsKey(dirblob)) {
-                File todelete = new File(CWD.getPath() + "/" + dirblob);
-                todelete.delete();
-            }
-        }
-
-        /*all files in commit at branch*/
-        HashMap<String, String> blobstoadd = branchcom.getMap();
-
-        for (String blobid : blobstoadd.keySet()) {
-            /* if the file is already there in CWD,
-            delete it and write a new one*/
-            if ((new File(CWD.getPath() + "/" + blobid)).exists()) {
-                (new File(CWD.getPath() + "/" + blobid)).delete();
-            }
-            /* get the blob file from commit blobmap*/
-            File newBlob = new File(CWD.getPath()
-                    + "/.gitlet/blobs/" + branchcom.getMap().get(blobid)
-                    + ".txt");
-            /* make a new file and write the blob contents into it*/
-            File newFile = new File(CWD.getPath(), blobid);
-            Utils.writeContents(newFile, Utils.readContents(newBlob));
-        }
-
-        /*all files in current commit*/
-        HashMap<String, String> currentblobs = curr.getMap();
-        for (String blobid : currentblobs.keySet()) {
-            /*if checked out branch doesnt have the file*/
-            if (!blobstoadd.containsKey(blobid)) {
-                /* remove it*/
-                File deletefile = new File(CWD.getPath()
-                        + "/.gitlet/blobs/" + blobid);
-                deletefile.delete();
-            }
+        Commit curr = commitCache.get(getCurrentCommit());
+        if (!checkoutCommit(curr, branchcom)) {
+            return;
         }
 
         /* clear stage*/
         stage.clear();
 
         /* at end of command, make this branch the head*/
-        try {
-            Files.write((Paths.get(CWD.getPath()
-                    + "/.gitlet/branches/HEAD.txt")), branchname.getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        refs.setHead(branchname);
     }
 
     /**
@@ -394,41 +492,22 @@ public class Repository {
      * @param args string[]
      */
     public void checkoutCommitFile(String[] args) {
-        String commitid = args[1];
         String name = args[3];
-        boolean hasid = false;
-
-        /*search through list of commit ids*/
-        List<String> listofcommits = Utils.plainFilenamesIn(CWD.getPath()
-                + "/.gitlet/commits");
-        for (String id : listofcommits) {
-            if (id.contains(commitid)) {
-                hasid = true;
-                commitid = id;
-            }
-        }
-        /*if commit doesnt exist*/
-        if (!hasid) {
-            System.out.println("No commit with that id exists.");
+        /*find the one commit id starting with args[1]*/
+        String commitid = resolveCommit(args[1]);
+        if (commitid == null) {
             return;
         }
-        Commit checkCom = Commit.readCommit(commitid);
+        Commit checkCom = commitCache.get(commitid);
         /*if file does not exist in that commit*/
-        if (!checkCom.getMap().containsKey(name)) {
+        String blob = checkCom.getBlob(name);
+        if (blob == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        /* if the file is already there in CWD, delete it and write a new one
-        (dont make new file with that path if it doesnt exist bc error)*/
-        if ((new File(CWD.getPath() + name)).exists()) {
-            (new File(CWD.getPath() + name)).delete();
-        }
-        /* get the blob file from commit blobmap*/
-        File newBlob = new File(CWD.getPath()
-                + "/.gitlet/blobs/" + checkCom.getMap().get(name) + ".txt");
-        /*make a new file and write the blob contents into it*/
-        File newFile = new File(CWD.getPath(), name);
-        Utils.writeContents(newFile, Utils.readContents(newBlob));
+        /*write the blob contents from commit blobmap over the file,
+        which is replaced only once they are all written*/
+        writeWorkingFile(name, blob);
     }
     /**
      * Checkout is a kind of general command that can do a few
@@ -475,9 +554,10 @@ public class Repository {
      and the commit message.
      */
     public void log() {
-        /* current commit*/
-        Commit curr = Commit.readCommit(getCurrentCommit());
-        while (curr != null) {
+        /* current commit, found with the commit graph*/
+        int index = graph.indexOf(getCurrentCommit());
+        while (index != CommitGraph.NONE) {
+            Commit curr = commitCache.get(graph.id(index));
             System.out.println("===");
             System.out.println("commit " + curr.getID());
             if (curr.getMessage().contains("Merged")) {
@@ -489,15 +569,8 @@ public class Repository {
             System.out.println(curr.getMessage());
             System.out.println();
 
-            /* as long as curr has parents*/
-            if (!curr.getParents().isEmpty()) {
-                /* make curr the parent*/
-                String parentid = curr.getParents().get(0);
-                curr = Commit.readCommit(parentid);
-            } else {
-                /* else exit*/
-                return;
-            }
+            /* make curr the parent, until there is none*/
+            index = graph.firstParent(index);
         }
     }
 
@@ -508,39 +581,59 @@ public class Repository {
      from the working directory if the user has not
      already done so (do not remove it unless it is
      tracked in the current commit).
+     Each operand may be a file, a directory (every tracked or staged
+     file under it) or a glob; nothing is removed if any file named is
+     neither tracked nor staged, and the stage is saved once.
      @param args string[]
      */
     public void rm(String[] args) {
-        String fileName = args[1];
-        boolean isstagedortracked = false;
-
         /*get the current commit using commit id and read from commits*/
-        Commit curr = Commit.readCommit(getCurrentCommit());
-        /*if commit blobmap is already tracking file*/
-        if (curr.getMap().containsKey(fileName)) {
-            isstagedortracked = true;
-            /*stage for removal*/
-            stage.remove(fileName);
-            /*remove it from working dir*/
-            File removefile = new File(CWD.getPath(), fileName);
-            if (removefile.exists()) {
-                Utils.restrictedDelete(fileName);
-            }
-        }
-
-        /* if currently staged for addition*/
-        if (stage.getAdded().containsKey(fileName)) {
-            isstagedortracked = true;
-            stage.getAdded().remove(fileName);
+        Map<String, String> tracked = commitCache.get(getCurrentCommit())
+                .getMap();
+        TreeSet<String> candidates = new TreeSet<>(tracked.keySet());
+        candidates.addAll(stage.getAdded().keySet());
+        TreeSet<String> names = new TreeSet<>();
+        for (int i = 1; i < args.length; i += 1) {
+            names.addAll(PathSpec.expand(CWD, args[i], () -> candidates));
         }
-
-        if (!isstagedortracked) {
+        if (names.isEmpty()) {
             System.out.println("No reason to remove the file.");
             return;
         }
+        for (String fileName : names) {
+            if (!tracked.containsKey(fileName)
+                    && !stage.getAdded().containsKey(fileName)) {
+                System.out.println("No reason to remove the file.");
+                return;
+            }
+        }
+
+        for (String fileName : names) {
+            removeFile(fileName, tracked.containsKey(fileName));
+        }
 
         /*save stage*/
-        stage.save();
+        saveStage();
+    }
+
+    /**
+     * Stages FILENAME for removal and deletes it from the working
+     * directory if the current commit tracks it, as TRACKED says, or
+     * else only unstages it. The stage is not saved.
+     * @param fileName file name
+     * @param tracked whether the current commit tracks the file
+     */
+    private void removeFile(String fileName, boolean tracked) {
+        /*if commit blobmap is already tracking file*/
+        if (tracked) {
+            /*stage for removal, no longer for addition*/
+            stage.remove(fileName);
+            /*remove it from working dir*/
+            WorkTree.delete(CWD, fileName);
+        } else {
+            /* only staged for addition*/
+            stage.unstage(fileName);
+        }
     }
 
     /**
@@ -549,20 +642,50 @@ public class Repository {
      * not matter. Hint: there is a useful method in
      * gitlet.Utils that will help you iterate over files
      *  within a directory.
+     * Commits are listed in id order and decoded on a pool of threads,
+     * a bounded window of them ahead of the one being printed.
      */
     public void globallog() {
-        List<String> allcommits = Utils.plainFilenamesIn(CWD.getPath()
-                + "/.gitlet/commits");
-        for (String commitid : allcommits) {
-            Commit curr = Commit.readCommit(commitid);
-            System.out.println("===");
-            System.out.println("commit " + curr.getID());
-            System.out.println("Date: " + curr.getTime());
-            System.out.println(curr.getMessage());
-            System.out.println();
+        int threads = threads();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String>> window = new ArrayDeque<>();
+        BufferedWriter out = new BufferedWriter(
+                new OutputStreamWriter(System.out));
+        try {
+            Iterator<String> ids = commitIndex.ids();
+            while (ids.hasNext() || !window.isEmpty()) {
+                while (ids.hasNext() && window.size() < 4 * threads) {
+                    String commitid = ids.next();
+                    window.add(pool.submit(() -> globalLogEntry(commitid)));
+                }
+                out.write(window.remove().get());
+            }
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalArgumentException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause());
+        } finally {
+            pool.shutdownNow();
         }
     }
 
+    /**
+     * Returns the global-log entry of the commit COMMITID.
+     * @param commitid commit id
+     * @return lines of the entry
+     */
+    private String globalLogEntry(String commitid) {
+        Commit curr = commitCache.get(commitid);
+        String nl = System.lineSeparator();
+        return "===" + nl + "commit " + curr.getID() + nl
+                + "Date: " + curr.getTime() + nl
+                + curr.getMessage() + nl + nl;
+    }
+
     /**
      * Prints out the ids of all commits that have the given
      * commit message, one per line. If there are multiple
@@ -571,44 +694,98 @@ public class Repository {
      * multiword message, put the operand in quotation marks,
      * as for the commit command below. Hint: the hint for this
      * command is the same as the one for global-log.
+     * find --term [words] prints the commits whose messages hold
+     * every word, ignoring case and punctuation, and find --prefix
+     * [start] those with a word starting with START.
      * @param args string[]
      */
     public void find(String[] args) {
-        String message = args[1];
-        boolean hascommit = false;
-        List<String> allcommits = Utils.plainFilenamesIn(CWD.getPath()
-                + "/.gitlet/commits");
-        for (String commitid : allcommits) {
-            Commit goingthrough = Commit.readCommit(commitid);
-            if ((goingthrough.getMessage()).equals(message)) {
-                System.out.println(commitid);
-                hascommit = true;
-            }
+        List<String> found;
+        if (args.length == 2) {
+            found = messages.exact(args[1]);
+        } else if (args.length == 3 && args[1].equals("--term")) {
+            found = messages.term(args[2]);
+        } else if (args.length == 3 && args[1].equals("--prefix")) {
+            found = messages.prefix(args[2]);
+        } else {
+            System.out.println("Incorrect operands.");
+            return;
         }
-        if (!hascommit) {
+        for (String commitid : found) {
+            System.out.println(commitid);
+        }
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
 
+    /**
+     * Lists or changes the sparse patterns, which choose the tracked
+     * files kept in the working directory: sparse list prints them,
+     * sparse set PATTERN... replaces them, sparse add PATTERN... adds to
+     * them, and sparse disable drops them, keeping every file. Commits
+     * still hold every file. Only files the change brings in or leaves
+     * out are touched: those brought in are written unless a file is
+     * already there, and those left out are deleted unless edited.
+     * @param args string[]
+     */
+    public void sparse(String[] args) {
+        List<String> patterns = new ArrayList<>();
+        if (args.length == 2 && args[1].equals("list")) {
+            for (String pattern : sparse.patterns()) {
+                System.out.println(pattern.isEmpty() ? "." : pattern);
+            }
+            return;
+        } else if (args.length >= 3 && args[1].equals("add")) {
+            patterns.addAll(sparse.patterns());
+        } else if (!(args.length >= 3 && args[1].equals("set")
+                || args.length == 2 && args[1].equals("disable"))) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        patterns.addAll(Arrays.asList(args).subList(2, args.length));
+        Sparse next = new Sparse(SPARSE, patterns);
+
+        /* each file as it would be committed*/
+        HashMap<String, String> tracked = new HashMap<>(
+                commitCache.get(getCurrentCommit()).getMap());
+        tracked.putAll(stage.getAdded());
+        tracked.keySet().removeAll(stage.getRemoved());
+        HashMap<String, String> files = new HashMap<>();
+        List<String> deleted = new ArrayList<>();
+        for (Map.Entry<String, String> e : tracked.entrySet()) {
+            String name = e.getKey();
+            boolean was = sparse.matches(name);
+            boolean now = next.matches(name);
+            if (now && !was && !Utils.join(CWD, name).exists()) {
+                files.put(name, e.getValue());
+            } else if (was && !now
+                    && e.getValue().equals(workingBlob(name))) {
+                deleted.add(name);
+            }
+        }
+        if (!materialize(files, deleted)) {
+            return;
+        }
+        sparse = next;
+        sparse.save();
+        workingFiles = null;
+    }
+
     /**
      * Displays what branches currently exist, and marks the
      * current branch with a *. Also displays what files have
      * been staged for addition or removal.
      */
     public void status() {
-        List<String> branchnames = Utils.plainFilenamesIn(CWD.getPath()
-                + "/.gitlet/branches/");
+        List<String> branchnames = refs.names();
         Set<String> stagedfiles = stage.getAdded().keySet();
-        ArrayList<String> removedfiles = stage.getRemoved();
+        Set<String> removedfiles = stage.getRemoved();
 
         /*branches*/
         System.out.println("=== Branches ===");
         /*go through all branches*/
         for (String branch : branchnames) {
-            /*if main branch*/
-            if (branch.equals("HEAD.txt")) {
-                continue;
-            }
             if (branch.equals(getCurrBranchName())) {
                 System.out.println("*" + branch);
             } else {
@@ -635,10 +812,16 @@ public class Repository {
 
         /*not staged for commit*/
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String line : unstagedChanges()) {
+            System.out.println(line);
+        }
         System.out.println();
 
         /*untracked*/
-        System.out.println("=== Untracked Files ===\n");
+        System.out.println("=== Untracked Files ===");
+        for (String name : untrackedFiles()) {
+            System.out.println(name);
+        }
         System.out.println();
     }
 
@@ -653,19 +836,11 @@ public class Repository {
      */
     public void branch(String[] args) {
         String branchname = args[1];
-        File branchfile = new File(CWD.getPath()
-                + "/.gitlet/branches/" + branchname);
-        if (branchfile.exists()) {
+        if (refs.get(branchname) != null) {
             System.out.println("A branch with that name already exists.");
             return;
         }
-        try {
-            Files.write(Paths.get(CWD.getPath()
-                            + "/.gitlet/branches/" + branchname),
-                    (getCurrentCommit()).getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        refs.set(branchname, getCurrentCommit());
     }
 
     /**
@@ -681,14 +856,11 @@ public class Repository {
             return;
         }
 
-        if (!(new File(CWD.getPath()
-                + "/.gitlet/branches/" + branchname)).exists()) {
+        if (refs.get(branchname) == null) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
-        File branchfile = new File(CWD.getPath()
-                + "/.gitlet/branches/" + branchname);
-        branchfile.delete();
+        refs.remove(branchname);
     }
 
     /**
@@ -703,84 +875,21 @@ public class Repository {
      * @param args string[]
      */
     public void reset(String[] args) {
-        String commitid = args[1];
-        boolean hasid = false;
-        /*search through list of commit ids*/
-        List<String> listofcommits = Utils.plainFilenamesIn(CWD.getPath()
-                + "/.gitlet/commits");
-        for (String id : listofcommits) {
-            if (id.contains(commitid)) {
-                hasid = true;
-            }
-        }
-        /*if commit doesnt exist*/
-        if (!hasid) {
-            System.out.println("No commit with that id exists.");
+        /*find the one commit id starting with args[1]*/
+        String commitid = resolveCommit(args[1]);
+        if (commitid == null) {
             return;
         }
-        Commit resetcommit = Commit.readCommit(commitid);
+        Commit resetcommit = commitCache.get(commitid);
         /* current commit*/
-        Commit curr = Commit.readCommit(getCurrentCommit());
-
-        /* check if any untracked files*/
-        List<String> directoryblob = Utils.plainFilenamesIn(CWD.getPath());
-        for (String dirblob : directoryblob) {
-            if (!curr.getMap().containsKey(dirblob)) {
-                if (resetcommit.getMap().containsKey(dirblob)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    return;
-                }
-            }
-        }
-
-        /*remove any files that are not in the branch in directory*/
-        for (String dirblob : directoryblob) {
-            if (!resetcommit.getMap().containsKey(dirblob)) {
-                File todelete = new File(CWD.getPath() + "/" + dirblob);
-                todelete.delete();
-            }
-        }
-
-        /*all blobs in wanted commit*/
-        HashMap<String, String> blobstoadd = resetcommit.getMap();
-
-        for (String blobid : blobstoadd.keySet()) {
-            /*if the file is already there in CWD,
-            delete it and write a new one*/
-            if ((new File(CWD.getPath() + "/" + blobid)).exists()) {
-                (new File(CWD.getPath() + "/" + blobid)).delete();
-            }
-            /*get the blob file from commit blobmap*/
-            File newBlob = new File(CWD.getPath()
-                    + "/.gitlet/blobs/" + resetcommit.getMap().get(blobid)
-                    + ".txt");
-            /*make a new file and write the blob contents into it*/
-            File newFile = new File(CWD.getPath(), blobid);
-            Utils.writeContents(newFile, Utils.readContents(newBlob));
-        }
-
-        /*all files in current commit*/
-        HashMap<String, String> currentblobs = curr.getMap();
-        for (String blobid : currentblobs.keySet()) {
-            /*if checked out branch doesnt have the file*/
-            if (!blobstoadd.containsKey(blobid)) {
-                /*remove it*/
-                File deletefile = new File(CWD.getPath()
-                        + "/.gitlet/blobs/" + blobid + ".txt");
-                deletefile.delete();
-            }
+        Commit curr = commitCache.get(getCurrentCommit());
+        if (!checkoutCommit(curr, resetcommit)) {
+            return;
         }
         stage.clear();
-        stage.save();
+        saveStage();
         /*at end of command, make this commit branch the head*/
-        try {
-            Files.write((Paths.get(CWD.getPath()
-                    + "/.gitlet/branches/"
-                    + getCurrBranchName())), commitid.getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        refs.set(getCurrBranchName(), commitid);
     }
 
 
@@ -800,31 +909,25 @@ public class Repository {
             System.out.println("Cannot merge a branch with itself.");
             return;
         }
-        if (!(new File(CWD.getPath()
-                + "/.gitlet/branches/" + branchname)).exists()) {
+        if (refs.get(branchname) == null) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
         /* commit at given branch*/
-        String branchcomid = Utils.readContentsAsString(new File(CWD.getPath()
-                + "/.gitlet/branches/" + branchname));
-        Commit branchcom = Commit.readCommit(branchcomid);
+        String branchcomid = refs.get(branchname);
+        Commit branchcom = commitCache.get(branchcomid);
         /* current commit*/
-        Commit curr = Commit.readCommit(getCurrentCommit());
-
-        List<String> directoryblob = Utils.plainFilenamesIn(CWD.getPath());
-        for (String dirblob : directoryblob) {
-            if (!curr.getMap().containsKey(dirblob)) {
-                if (branchcom.getMap().containsKey(dirblob)) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    return;
-                }
-            }
+        Commit curr = commitCache.get(getCurrentCommit());
+
+        if (untrackedInTheWay(Tree.diff(curr.getTree(),
+                branchcom.getTree()))) {
+            return;
         }
-        String splitpointid = "";
-        /* find split point */
-        splitpointid = mergeSplitPoint(curr, branchcom);
+        /* find the best common ancestors (split points) */
+        List<Integer> bases = mergeBases.bases(graph.indexOf(curr.getID()),
+                graph.indexOf(branchcomid));
+        String splitpointid = bases.size() == 1
+                ? graph.id(bases.get(0)) : "";
 
         /* if splitpoint is same as given branch */
         if (splitpointid.equals(branchcomid)) {
@@ -839,16 +942,34 @@ public class Repository {
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        Commit splitpoint = Commit.readCommit(splitpointid);
+        /* after criss-cross merges, the split point is a virtual commit
+         * merging the best common ancestors*/
+        String splitTree = baseTree(bases);
         boolean isconflict = false;
 
+        /* only files changed since the split point on either side can need
+         * merging; unchanged subtrees are skipped by comparing their ids*/
+        HashMap<String, String[]> currChanges = Tree.diff(
+                splitTree, curr.getTree());
+        HashMap<String, String[]> branchChanges = Tree.diff(
+                splitTree, branchcom.getTree());
         Set<String> allfiles = new HashSet<String>();
-        allfiles.addAll(splitpoint.getMap().keySet());
-        allfiles.addAll(curr.getMap().keySet());
-        allfiles.addAll(branchcom.getMap().keySet());
+        allfiles.addAll(currChanges.keySet());
+        allfiles.addAll(branchChanges.keySet());
+        HashMap<String, String> splitBlobs = new HashMap<>();
+        HashMap<String, String> currBlobs = new HashMap<>();
+        HashMap<String, String> branchBlobs = new HashMap<>();
+        for (String filename : allfiles) {
+            String[] c = currChanges.get(filename);
+            String[] b = branchChanges.get(filename);
+            String split = c != null ? c[0] : b[0];
+            putBlob(splitBlobs, filename, split);
+            putBlob(currBlobs, filename, c != null ? c[1] : split);
+            putBlob(branchBlobs, filename, b != null ? b[1] : split);
+        }
 
         isconflict = mergeGoingThroughFiles(allfiles,
-                splitpoint, branchcom, curr, branchcomid);
+                splitBlobs, branchBlobs, currBlobs, branchcomid);
 
         commit(new String[]{"commit", ("Merged "
                 + branchname + " into " + curBranchName + ".")});
@@ -857,86 +978,334 @@ public class Repository {
         }
     }
 
+    /**
+     * Packs all loose blobs and commits into a single pack file,
+     * storing similar objects as deltas against each other, and
+     * retrains the compression dictionary on the repository's blobs.
+     */
+    public void gc() {
+        ObjectStore.repack();
+    }
+
+    /**
+     * Prints the setting named ARGS[1], or sets it to ARGS[2].
+     * @param args string[]
+     */
+    public void config(String[] args) {
+        if (args.length == 2) {
+            System.out.println(config.get(args[1], ""));
+        } else {
+            config.set(args[1], args[2]);
+        }
+    }
+
+    /**
+     * Drops changes to the staging area that the last command did not
+     * save, as they would be if it had run in a process of its own.
+     */
+    void discardUnsavedStage() {
+        if (stage != null) {
+            stage.discardUnsaved();
+        }
+    }
+
+    /**
+     * Holds saves of the staging area and branches in memory until
+     * flush if DEFER, so commands run one after another in this process
+     * write them once; or writes them as they are made if not.
+     * @param defer whether to hold writes
+     */
+    void deferWrites(boolean defer) {
+        deferWrites = defer;
+        refs.defer(defer);
+        if (!defer) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the staging area and branches as last saved by a command.
+     */
+    void flush() {
+        discardUnsavedStage();
+        if (stage != null && !stage.isWritten()) {
+            stage.save();
+        }
+        refs.flush();
+    }
+
+    /**
+     * Returns the tracked or staged files that differ in the working
+     * directory from the version that would be committed, each followed
+     * by (modified) or (deleted), in name order.
+     * @return lines for status
+     */
+    private List<String> unstagedChanges() {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, String> e : unstagedFiles().entrySet()) {
+            result.add(e.getKey() + (e.getValue() == null ? " (deleted)"
+                    : " (modified)"));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the tracked or staged files that differ in the working
+     * directory from the version that would be committed, mapped to the
+     * blob id of their working version, or to null if deleted. Only
+     * files whose stat data changed since their id was last known are
+     * read, and files the sparse patterns leave out are not looked at.
+     * @return file name to working blob id or null
+     */
+    private TreeMap<String, String> unstagedFiles() {
+        HashMap<String, String> tracked = commitCache.get(
+                getCurrentCommit()).getMap();
+        TreeSet<String> names = new TreeSet<>(tracked.keySet());
+        names.addAll(stage.getAdded().keySet());
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String name : names) {
+            String expected = stage.getAdded().get(name);
+            if (expected == null && stage.getRemoved().contains(name)
+                    || !sparse.matches(name)) {
+                continue;
+            }
+            if (expected == null) {
+                expected = tracked.get(name);
+            }
+            String actual = workingBlob(name);
+            if (!expected.equals(actual)) {
+                result.put(name, actual);
+            }
+        }
+        statCache.retain(names);
+        return result;
+    }
+
+    /**
+     * Returns the blob id of the working file NAME, or null if there is
+     * no such file. The file is hashed only if its stat data changed
+     * since its id was last known.
+     * @param name file name
+     * @return blob id or null
+     */
+    private String workingBlob(String name) {
+        File file = new File(CWD.getPath(), name);
+        long[] stat = StatCache.stat(file);
+        if (stat == null) {
+            return null;
+        }
+        String id = statCache.get(name, stat);
+        if (id == null) {
+            id = ObjectStore.hashBlob(file);
+            statCache.put(name, id, stat);
+        }
+        return id;
+    }
+
+    /**
+     * Writes the blob ID as the working file NAME and records its stat
+     * data. Prints an error and leaves the file as it was if the blob
+     * cannot be read.
+     * @param name file name
+     * @param id blob id
+     */
+    private void writeWorkingFile(String name, String id) {
+        File file = new File(CWD.getPath(), name);
+        try {
+            ObjectStore.checkoutBlob(id, file, checkoutMode());
+        } catch (GitletException | IllegalArgumentException e) {
+            System.out.println("A blob to check out is missing or corrupt.");
+            return;
+        }
+        statCache.put(name, id, StatCache.stat(file));
+    }
+
+    /**
+     * Returns the files in the working directory, scanning it the first
+     * time they are needed in a command.
+     * @return file names
+     */
+    private Set<String> workingFiles() {
+        if (workingFiles == null) {
+            Set<String> files = new ConcurrentSkipListSet<>();
+            WorkTree.scan(CWD, dirCache, sparse, threads(), files::add);
+            workingFiles = files;
+        }
+        return workingFiles;
+    }
+
+    /**
+     * Returns the working files that are neither tracked by the current
+     * commit nor staged for addition, and those staged for removal that
+     * have been made again, in name order.
+     * @return file names
+     */
+    private List<String> untrackedFiles() {
+        Commit curr = commitCache.get(getCurrentCommit());
+        List<String> result = new ArrayList<>();
+        for (String name : workingFiles()) {
+            if (stage.getRemoved().contains(name)
+                    || curr.getBlob(name) == null
+                    && !stage.getAdded().containsKey(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the caches of working-directory state that changed, and
+     * forgets the scan of the working directory, at the end of a command.
+     */
+    void saveCaches() {
+        statCache.save();
+        dirCache.save();
+        workingFiles = null;
+    }
+
+    /**
+     * Saves the staging area, or marks it saved if writes are deferred.
+     */
+    private void saveStage() {
+        if (deferWrites) {
+            stage.keep();
+        } else {
+            stage.save();
+        }
+    }
+
+    /**
+     * Returns the size, modification time and inode of every file whose
+     * contents a Repository keeps in memory between commands: the stage,
+     * branches, settings, caches and indexes. A daemon compares them
+     * before each command to see whether another process changed them.
+     * @return one line per file, the same while none changes
+     */
+    static String stateStamp() {
+        List<File> files = new ArrayList<>(List.of(GRAPH, COMMIT_IDS,
+                COMMIT_IDS_LOG, MESSAGES, MESSAGES_LOG, BLOOM, BLOB_IDS,
+                CONFIG, STAT_CACHE, DIR_CACHE, SPARSE, BRANCHES));
+        for (File dir : new File[]{STAGING_AREA, BRANCHES}) {
+            List<String> names = Utils.plainFilenamesIn(dir);
+            if (names != null) {
+                for (String name : names) {
+                    files.add(join(dir, name));
+                }
+            }
+        }
+        StringBuilder stamp = new StringBuilder();
+        for (File file : files) {
+            stamp.append(file.getName()).append(' ')
+                    .append(Arrays.toString(StatCache.stat(file)))
+                    .append('\n');
+        }
+        return stamp.toString();
+    }
+
+    /**
+     * Prints how many commit reads the commit cache has answered from
+     * memory and how many it decoded.
+     */
+    public void cacheStatus() {
+        System.out.println("commit cache: " + commitCache.hits()
+                + " hits, " + commitCache.misses() + " misses");
+    }
+
+    /**
+     * Moves loose objects left in the flat blobs and commits directories
+     * of an older repository into shard directories.
+     */
+    public void migrate() {
+        ObjectStore.migrate();
+    }
+
     /* helpers*/
 
     /**
      * Goes through all files for the three commits.
      * Accordingly checksout/adds/removes.
      * @param allfiles set<string>
-     * @param splitpoint commit
-     * @param branchcom commit
-     * @param curr commit
+     * @param splitpoint blobs of ALLFILES in the split point
+     * @param branchcom blobs of ALLFILES in the given branch
+     * @param curr blobs of ALLFILES in the current commit
      * @param branchcomid string
      * @return
      */
     public boolean mergeGoingThroughFiles(Set<String> allfiles,
-                                          Commit splitpoint,
-                                          Commit branchcom, Commit curr,
+                                          HashMap<String, String> splitpoint,
+                                          HashMap<String, String> branchcom,
+                                          HashMap<String, String> curr,
                                           String branchcomid) {
         boolean isconflict = false;
         for (String filename : allfiles) {
             /* if modified in branch but not head (in splitpoint too) */
-            if (splitpoint.getMap().containsKey(filename)
-                    && branchcom.getMap().containsKey(filename)
-                    && curr.getMap().containsKey(filename)
-                    && splitpoint.getMap().get(filename).equals(
-                    curr.getMap().get(filename))
-                    && !branchcom.getMap().get(filename).equals(
-                    curr.getMap().get(filename))) {
-                checkout(new String[]{"checkout", branchcomid, "--", filename});
-                stage.add(filename, branchcom.getMap().get(filename));
+            if (splitpoint.containsKey(filename)
+                    && branchcom.containsKey(filename)
+                    && curr.containsKey(filename)
+                    && splitpoint.get(filename).equals(
+                    curr.get(filename))
+                    && !branchcom.get(filename).equals(
+                    curr.get(filename))) {
+                if (sparse.matches(filename)) {
+                    checkout(new String[]{"checkout", branchcomid, "--",
+                        filename});
+                }
+                stage.add(filename, branchcom.get(filename));
                 continue;
             }
             /* modified in branch and head in diff ways (in splitpoint too)*/
-            if (splitpoint.getMap().containsKey(filename)
-                    && branchcom.getMap().containsKey(filename)
-                    && curr.getMap().containsKey(filename)
-                    && !branchcom.getMap().get(filename).equals(
-                    curr.getMap().get(filename))
-                    && !splitpoint.getMap().get(filename).equals(
-                    curr.getMap().get(filename))
-                    && !splitpoint.getMap().get(filename).equals(
-                    branchcom.getMap().get(filename))) {
+            if (splitpoint.containsKey(filename)
+                    && branchcom.containsKey(filename)
+                    && curr.containsKey(filename)
+                    && !branchcom.get(filename).equals(
+                    curr.get(filename))
+                    && !splitpoint.get(filename).equals(
+                    curr.get(filename))
+                    && !splitpoint.get(filename).equals(
+                    branchcom.get(filename))) {
                 mergeIsConflict(curr, branchcom, filename);
                 isconflict = true;
                 continue;
             }
             /* modified in branch and deleted in head (in splitpoint too)*/
-            if (splitpoint.getMap().containsKey(filename)
-                    && branchcom.getMap().containsKey(filename)
-                    && !curr.getMap().containsKey(filename)
-                    && !splitpoint.getMap().get(filename).equals(
-                    branchcom.getMap().get(filename))) {
+            if (splitpoint.containsKey(filename)
+                    && branchcom.containsKey(filename)
+                    && !curr.containsKey(filename)
+                    && !splitpoint.get(filename).equals(
+                    branchcom.get(filename))) {
                 mergeIsConflict(curr, branchcom, filename);
                 isconflict = true;
                 continue;
             }
             /* modified in head and deleted in branch (in splitpoint too)*/
-            if (splitpoint.getMap().containsKey(filename)
-                    && !branchcom.getMap().containsKey(filename)
-                    && curr.getMap().containsKey(filename)
-                    && !splitpoint.getMap().get(filename).equals(
-                    curr.getMap().get(filename))) {
+            if (splitpoint.containsKey(filename)
+                    && !branchcom.containsKey(filename)
+                    && curr.containsKey(filename)
+                    && !splitpoint.get(filename).equals(
+                    curr.get(filename))) {
                 mergeIsConflict(curr, branchcom, filename);
                 isconflict = true;
                 continue;
             }
             /* not in split or curr but in branch */
-            if (!splitpoint.getMap().containsKey(filename)
-                    && !curr.getMap().containsKey(filename)
-                    && branchcom.getMap().containsKey(filename)) {
-                checkout(new String[]{"checkout", branchcomid, "--", filename});
-                stage.add(filename, branchcom.getMap().get(filename));
+            if (!splitpoint.containsKey(filename)
+                    && !curr.containsKey(filename)
+                    && branchcom.containsKey(filename)) {
+                if (sparse.matches(filename)) {
+                    checkout(new String[]{"checkout", branchcomid, "--",
+                        filename});
+                }
+                stage.add(filename, branchcom.get(filename));
                 continue;
             }
             /* same in head and split but not in branch */
-            if (splitpoint.getMap().containsKey(filename)
-                    && curr.getMap().containsKey(filename)
-                    && splitpoint.getMap().get(filename).equals(
-                    curr.getMap().get(filename))
-                    && !branchcom.getMap().containsKey(filename)) {
+            if (splitpoint.containsKey(filename)
+                    && curr.containsKey(filename)
+                    && splitpoint.get(filename).equals(
+                    curr.get(filename))
+                    && !branchcom.containsKey(filename)) {
                 /*  should be removed (and untracked) */
-                rm(new String[]{"rm", filename});
+                removeFile(filename, true);
                 continue;
             }
         }
@@ -945,111 +1314,302 @@ public class Repository {
 
 
     /**
-     * Helper for merge to find the split point.
+     * Helper for merge to find the split point: the best common ancestor
+     * of the two commits, or the first of them after criss-cross merges,
+     * or "" if they share no history.
      * @param curr commit
      * @param branchcom commit
      * @return splitpointid
      */
     public String mergeSplitPoint(Commit curr, Commit branchcom) {
-        ArrayList<String> currcommits = new ArrayList<>();
-        currcommits.add(curr.getID());
-        while (curr != null) {
-            if (!curr.getParents().isEmpty()) {
-                String parentid = curr.getParents().get(0);
-                currcommits.add(parentid);
-                if (curr.getParents().size() == 2) {
-                    currcommits.add(curr.getParents().get(1));
-                }
-                curr = Commit.readCommit(parentid);
-            } else {
-                break;
-            }
-        }
+        List<Integer> bases = mergeBases.bases(graph.indexOf(curr.getID()),
+                graph.indexOf(branchcom.getID()));
+        return bases.isEmpty() ? "" : graph.id(bases.get(0));
+    }
 
-        if (currcommits.contains(branchcom.getID())) {
-            return branchcom.getID();
+    /**
+     * Returns the tree of the split point with the best common ancestors
+     * BASES. A single base is used as it is. Several are merged into a
+     * virtual split point, each merge using the split point of the pair as
+     * its own base, found the same way; files both sides changed differently
+     * hold conflict markers. Beyond two bases, each further base is merged
+     * into the result using its split point with the first base.
+     * @param bases record numbers of best common ancestors
+     * @return tree id
+     */
+    private String baseTree(List<Integer> bases) {
+        if (bases.isEmpty()) {
+            return Tree.write(new HashMap<>());
         }
-        while (branchcom != null) {
-            if (!branchcom.getParents().isEmpty()) {
-                String parentid = branchcom.getParents().get(0);
-                if (currcommits.contains(parentid)) {
-                    return parentid;
-                }
-                if (branchcom.getParents().size() == 2) {
-                    if (currcommits.contains(branchcom.getParents().get(1))) {
-                        return branchcom.getParents().get(1);
-                    }
-                }
-                branchcom = Commit.readCommit(parentid);
-            } else {
-                break;
-            }
+        int first = bases.get(0);
+        String tree = commitCache.get(graph.id(first)).getTree();
+        for (int i = 1; i < bases.size(); i += 1) {
+            int other = bases.get(i);
+            tree = mergeTrees(baseTree(mergeBases.bases(first, other)), tree,
+                    commitCache.get(graph.id(other)).getTree());
         }
-
-        return "";
+        return tree;
     }
 
+    /**
+     * Returns the tree that merges the changes from the tree BASE to OURS
+     * and to THEIRS without touching the working directory. Files changed
+     * differently on both sides hold both versions between conflict
+     * markers.
+     * @param base tree id
+     * @param ours tree id
+     * @param theirs tree id
+     * @return merged tree id
+     */
+    private String mergeTrees(String base, String ours, String theirs) {
+        HashMap<String, String[]> oursChanges = Tree.diff(base, ours);
+        HashMap<String, String> changes = new HashMap<>();
+        for (Map.Entry<String, String[]> e
+                : Tree.diff(base, theirs).entrySet()) {
+            String[] o = oursChanges.get(e.getKey());
+            String t = e.getValue()[1];
+            if (o == null) {
+                changes.put(e.getKey(), t);
+            } else if (!Objects.equals(o[1], t)) {
+                String contents = conflictContents(o[1], t);
+                String blobid = Utils.sha1(contents);
+                ObjectStore.writeBlob(blobid,
+                        contents.getBytes(StandardCharsets.UTF_8), known);
+                changes.put(e.getKey(), blobid);
+            }
+        }
+        return Tree.update(ours, changes);
+    }
 
     /**
-     * If conflict, replaces contents of conflicted file with this.
-     * Adds to staging.
-     * @param curr commit
-     * @param branchcom commit
-     * @param filename string
-     * @return true
+     * Returns the contents of a conflicted file whose versions are the
+     * blobs CURR and BRANCH, either of which may be null.
+     * @param curr blob id in the current commit or null
+     * @param branch blob id in the given branch or null
+     * @return contents with conflict markers
      */
-    public boolean mergeIsConflict(Commit curr,
-                                   Commit branchcom, String filename) {
+    private String conflictContents(String curr, String branch) {
         String curFileContent = "", branchFileContent = "";
-        if (curr.getMap().get(filename) != null) {
-            curFileContent = Utils.readContentsAsString(new File(CWD.getPath()
-                    + "/.gitlet/blobs/"
-                    + curr.getMap().get(filename) + ".txt"));
-        }
-        if (branchcom.getMap().get(filename) != null) {
-            branchFileContent = Utils.readContentsAsString(
-                    new File(CWD.getPath()
-                    + "/.gitlet/blobs/" + branchcom.getMap().get(filename)
-                    + ".txt"));
-        }
-        String newcontents = "<<<<<<< HEAD\n"
+        if (curr != null) {
+            curFileContent = StandardCharsets.UTF_8.decode(
+                    ObjectStore.viewBlob(curr)).toString();
+        }
+        if (branch != null) {
+            branchFileContent = StandardCharsets.UTF_8.decode(
+                    ObjectStore.viewBlob(branch)).toString();
+        }
+        return "<<<<<<< HEAD\n"
                 + curFileContent
                 + "=======\n"
                 + branchFileContent
                 + ">>>>>>>\n";
+    }
+
+    /**
+     * If conflict, replaces contents of conflicted file with this.
+     * Adds to staging.
+     * @param curr blobs in the current commit
+     * @param branchcom blobs in the given branch
+     * @param filename string
+     * @return true
+     */
+    public boolean mergeIsConflict(HashMap<String, String> curr,
+                                   HashMap<String, String> branchcom,
+                                   String filename) {
+        String newcontents = conflictContents(curr.get(filename),
+                branchcom.get(filename));
 
         String blobid = Utils.sha1(newcontents);
 
-        try {
-            Files.write(Paths.get(CWD.getPath()
-                    + "/.gitlet/blobs/" + blobid
-                    + ".txt"), (newcontents).getBytes());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        ObjectStore.writeBlob(blobid,
+                newcontents.getBytes(StandardCharsets.UTF_8), known);
         stage.add(filename, blobid);
 
-        /* replace the contents of the conflicted file. Delete and add again*/
-        if ((new File(CWD.getPath() + filename)).exists()) {
-            (new File(CWD.getPath() + filename)).delete();
+        /* replace the contents of the conflicted file. Delete and add again,
+         * so a hard-linked checkout is never written through*/
+        if ((new File(CWD.getPath(), filename)).exists()) {
+            (new File(CWD.getPath(), filename)).delete();
         }
 
         /*make a new file and write the contents into it*/
         File newFile = new File(CWD.getPath(), filename);
-        Utils.writeContents(newFile, (newcontents).getBytes());
+        newFile.getParentFile().mkdirs();
+        Utils.writeContents(newFile,
+                newcontents.getBytes(StandardCharsets.UTF_8));
+        statCache.put(filename, blobid, StatCache.stat(newFile));
+
+        return true;
+    }
+
+    /**
+     * Replaces the files of CURR in the working directory with those of
+     * TARGET. Tree.diff finds the files whose blobs differ between the
+     * two trees without reading the subtrees they share, and those are
+     * written or deleted. A file both track alike is rewritten only if
+     * status would show it modified or deleted, or it is staged; the
+     * stat cache tells which without reading unchanged files, and only
+     * the nodes of TARGET on the way to such a file are read. Files the
+     * sparse patterns leave out are neither written nor deleted. Prints
+     * an error and changes nothing if an untracked file would be
+     * overwritten, and prints an error if a blob to write is
+     * missing or corrupt.
+     * @param curr current commit
+     * @param target commit to check out
+     * @return false if an untracked file is in the way or a blob could
+     * not be checked out
+     */
+    private boolean checkoutCommit(Commit curr, Commit target) {
+        HashMap<String, String[]> changes = Tree.diff(curr.getTree(),
+                target.getTree());
+        if (untrackedInTheWay(changes)) {
+            return false;
+        }
+        List<String> deleted = new ArrayList<>();
+        HashMap<String, String> files = new HashMap<>();
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            if (!sparse.matches(e.getKey())) {
+                continue;
+            } else if (e.getValue()[1] == null) {
+                /*tracked in curr but not in target*/
+                deleted.add(e.getKey());
+            } else {
+                /*added or changed in target*/
+                files.put(e.getKey(), e.getValue()[1]);
+            }
+        }
+        /*files the commits share, restored only if status would show
+        them edited or deleted, or they are staged*/
+        TreeSet<String> edited = new TreeSet<>(unstagedFiles().keySet());
+        edited.addAll(stage.getAdded().keySet());
+        edited.addAll(stage.getRemoved());
+        for (String name : edited) {
+            String id = target.getBlob(name);
+            if (id != null && !changes.containsKey(name)
+                    && sparse.matches(name) && !id.equals(workingBlob(name))) {
+                files.put(name, id);
+            }
+        }
+        return materialize(files, deleted);
+    }
 
+    /**
+     * Writes each blob of FILES (file name to blob id) as its working
+     * file and deletes the working files DELETED, recording them in the
+     * stat cache. Prints an error if a blob cannot be read or its file
+     * cannot be written.
+     * @param files file name to blob id
+     * @param deleted file names
+     * @return false if the files could not all be checked out
+     */
+    private boolean materialize(Map<String, String> files,
+                                List<String> deleted) {
+        Map<String, long[]> stats;
+        try {
+            stats = Checkout.apply(CWD, files, deleted, checkoutMode(),
+                    checkoutThreads());
+        } catch (GitletException | IllegalArgumentException e) {
+            System.out.println("A blob to check out is missing or corrupt.");
+            return false;
+        }
+        for (String name : deleted) {
+            statCache.remove(name);
+        }
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            statCache.put(e.getKey(), e.getValue(), stats.get(e.getKey()));
+        }
         return true;
     }
 
+    /**
+     * Returns whether CHANGES, the differences from the current commit to
+     * another, would overwrite an untracked file, printing an error if so.
+     * @param changes file name to {current blob id, other blob id}
+     * @return true if an untracked file is in the way
+     */
+    private boolean untrackedInTheWay(HashMap<String, String[]> changes) {
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            if (e.getValue()[0] == null && e.getValue()[1] != null
+                    && workingFiles().contains(e.getKey())) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts BLOB for FILENAME into BLOBS unless it is null.
+     * @param blobs file name to blob id
+     * @param filename string
+     * @param blob blob id or null
+     */
+    private static void putBlob(HashMap<String, String> blobs,
+                                String filename, String blob) {
+        if (blob != null) {
+            blobs.put(filename, blob);
+        }
+    }
+
+    /**
+     * Returns the full id of the one commit whose id starts with PREFIX,
+     * or prints an error and returns null if there is none or more than
+     * one.
+     * @param prefix abbreviated commit id
+     * @return commit id or null
+     */
+    private String resolveCommit(String prefix) {
+        List<String> matches = commitIndex.resolve(prefix);
+        if (matches.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        }
+        if (matches.size() > 1) {
+            System.out.println("Commit id is ambiguous.");
+            return null;
+        }
+        return matches.get(0);
+    }
+
+    /**
+     * Returns how many threads parallel commands use: core.threads, or
+     * one per processor if it is not set.
+     * @return thread count
+     */
+    private int threads() {
+        return Math.max(1, config.getInt("core.threads",
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns how many threads checkout writes files with:
+     * checkout.threads, or as many as other parallel commands use.
+     * @return thread count
+     */
+    private int checkoutThreads() {
+        return Math.max(1, config.getInt("checkout.threads", threads()));
+    }
+
+    /**
+     * Returns how checkout writes files: copy (the default), transfer or
+     * link, as set by checkout.mode.
+     * @return checkout mode
+     */
+    private String checkoutMode() {
+        String mode = config.get("checkout.mode", ObjectStore.COPY);
+        if (mode.equals(ObjectStore.TRANSFER)
+                || mode.equals(ObjectStore.LINK)) {
+            return mode;
+        }
+        return ObjectStore.COPY;
+    }
+
     /**
      * Returns the current commit ID as a string.
      * @return CommitID
      */
     public String getCurrentCommit() {
-        String branchname = Utils.readContentsAsString(HEAD);
-        File path = new File(CWD.getPath()
-                + "/.gitlet/branches/" + branchname);
-        return Utils.readContentsAsString(path);
+        return refs.get(refs.head());
     }
 
     /**
@@ -1057,8 +1617,7 @@ public class Repository {
      * @return current branch name
      */
     public String getCurrBranchName() {
-        String branchname = Utils.readContentsAsString(HEAD);
-        return branchname;
+        return refs.head();
     }
 
 }
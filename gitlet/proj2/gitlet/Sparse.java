@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The sparse patterns: which tracked files are kept in the working
+ * directory. Each pattern is a directory, standing for every file under
+ * it, a file name, or a glob holding *, ?, [ or { matched against whole
+ * names, where * and ? do not cross a /. With no patterns every file
+ * matches. The patterns are kept in .gitlet/sparse, one per line, and
+ * are read once; a Sparse is not changed after it is made, so it may be
+ * asked from several threads at once.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Sparse {
+
+    /**
+     * The patterns file.
+     */
+    private final File file;
+    /**
+     * The patterns, relative to the working directory.
+     */
+    private final List<String> patterns;
+    /**
+     * Matcher of each pattern that is a glob, or null for a directory or
+     * file name.
+     */
+    private final List<PathMatcher> globs;
+
+    /**
+     * Sparse constructor, reading the patterns in FILE, if it exists.
+     * @param f patterns file
+     */
+    Sparse(File f) {
+        this(f, f.isFile()
+                ? List.of(Utils.readContentsAsString(f).split("\n"))
+                : List.of());
+    }
+
+    /**
+     * Sparse constructor for the patterns GIVEN, to be kept in F.
+     * @param f patterns file
+     * @param given patterns
+     */
+    Sparse(File f, List<String> given) {
+        file = f;
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (String pattern : given) {
+            String p = normalize(pattern);
+            if (p != null) {
+                result.add(p);
+            }
+        }
+        patterns = new ArrayList<>(result);
+        globs = new ArrayList<>();
+        for (String p : patterns) {
+            globs.add(isGlob(p) ? FileSystems.getDefault()
+                    .getPathMatcher("glob:" + p) : null);
+        }
+    }
+
+    /**
+     * Returns whether any pattern is set.
+     * @return true if only some files are kept
+     */
+    boolean isEnabled() {
+        return !patterns.isEmpty();
+    }
+
+    /**
+     * Returns the patterns in the order given.
+     * @return patterns
+     */
+    List<String> patterns() {
+        return Collections.unmodifiableList(patterns);
+    }
+
+    /**
+     * Returns whether the file NAME is kept in the working directory.
+     * @param name file name
+     * @return true if a pattern matches
+     */
+    boolean matches(String name) {
+        if (patterns.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < patterns.size(); i += 1) {
+            String p = patterns.get(i);
+            if (globs.get(i) != null
+                    ? globs.get(i).matches(Path.of(name))
+                    : p.isEmpty() || name.equals(p)
+                    || name.startsWith(p + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a file kept in the working directory can be under
+     * the directory DIR.
+     * @param dir directory name
+     * @return true if the directory must be scanned
+     */
+    boolean entersDir(String dir) {
+        if (patterns.isEmpty() || dir.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < patterns.size(); i += 1) {
+            String p = patterns.get(i);
+            if (globs.get(i) != null || p.isEmpty() || dir.equals(p)
+                    || dir.startsWith(p + "/") || p.startsWith(dir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the patterns, or deletes the patterns file if there are
+     * none.
+     */
+    void save() {
+        if (patterns.isEmpty()) {
+            file.delete();
+        } else {
+            StringBuilder lines = new StringBuilder();
+            for (String p : patterns) {
+                lines.append(p.isEmpty() ? "." : p).append("\n");
+            }
+            Utils.writeContents(file, lines.toString());
+        }
+    }
+
+    /**
+     * Returns PATTERN relative to the working directory, without ./ or a
+     * trailing /, or null if it is blank. The whole tree is the empty
+     * pattern.
+     * @param pattern pattern
+     * @return normalized pattern or null
+     */
+    private static String normalize(String pattern) {
+        String p = pattern.trim();
+        if (p.isEmpty()) {
+            return null;
+        }
+        while (p.startsWith("./")) {
+            p = p.substring(2);
+        }
+        while (p.endsWith("/")) {
+            p = p.substring(0, p.length() - 1);
+        }
+        return p.equals(".") ? "" : p;
+    }
+
+    /**
+     * Returns whether PATTERN holds a glob character.
+     * @param pattern pattern
+     * @return true if a glob
+     */
+    private static boolean isGlob(String pattern) {
+        for (char c : pattern.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,25 +1,177 @@
 package gitlet;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
 
 /**
  * Represents a gitlet staging area.
  *  does at a high level.
+ * <p>
+ * Each file name is staged at most one way: for addition with a blob
+ * id, or for removal. The stage is stored in staging_area/index: a fixed
+ * header, the staged names in sorted order, then a log of later changes,
+ * one record per name changed. The header holds the length of each part
+ * and checksums of itself and of the sorted part, and every log record
+ * carries its own checksum. Saving appends a record for each name
+ * changed and then rewrites the header in place, so its cost does not
+ * depend on how many names are staged; a record cut short is past the
+ * end the header gives, and is ignored. Once the log outgrows the sorted
+ * part, or the stage is cleared, the index is rewritten whole.
  *
  * @author Swetha Karthikeyan
  */
-public class Staging implements Serializable {
+public class Staging {
+
+    /**
+     * First bytes of the index.
+     */
+    private static final String MAGIC = "GSTG";
+    /**
+     * Format version of the index.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Length of the index header.
+     */
+    private static final int HEADER = 40;
+    /**
+     * Length of the header covered by its checksum.
+     */
+    private static final int HEADER_SUMMED = 36;
+    /**
+     * Log records always allowed before the index is rewritten.
+     */
+    private static final int COMPACT_MIN = 1024;
+    /**
+     * Record kind of a name staged for addition.
+     */
+    private static final byte ADDED = 'a';
+    /**
+     * Record kind of a name staged for removal.
+     */
+    private static final byte REMOVED = 'r';
+    /**
+     * Record kind of a name no longer staged.
+     */
+    private static final byte UNSTAGED = 'u';
+
+    /**
+     * The stage as the first versions of gitlet wrote stage.txt, with
+     * Java serialization.
+     */
+    private static class Serialized implements Serializable {
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Names staged for addition, to blob id.
+         */
+        private TreeMap<String, String> addedBlob;
+        /**
+         * Names staged for removal.
+         */
+        private ArrayList<String> removedBlob;
+    }
+
+    /**
+     * How one name was staged before a change, or the whole stage
+     * before it was cleared.
+     */
+    private static class Change {
+        /**
+         * File name, or null for a clear.
+         */
+        private final String name;
+        /**
+         * Blob id it was staged to add, or null.
+         */
+        private final String id;
+        /**
+         * Whether it was staged for removal.
+         */
+        private final boolean removed;
+        /**
+         * Names staged for addition before a clear.
+         */
+        private final TreeMap<String, String> added;
+        /**
+         * Names staged for removal before a clear.
+         */
+        private final TreeSet<String> removedNames;
+
+        /**
+         * Change constructor.
+         * @param n file name, or null for a clear
+         * @param i blob id or null
+         * @param r whether staged for removal
+         * @param a staged additions before a clear
+         * @param rn staged removals before a clear
+         */
+        Change(String n, String i, boolean r, TreeMap<String, String> a,
+               TreeSet<String> rn) {
+            name = n;
+            id = i;
+            removed = r;
+            added = a;
+            removedNames = rn;
+        }
+    }
 
     /**
      * TreeMap of all blobs staged to be added. Contains blob name and id.
      */
     private TreeMap<String, String> addedBlob;
     /**
-     * ArrayList of all blobs staged to be removed. Contains blob name.
+     * TreeSet of all blobs staged to be removed. Contains blob name.
+     */
+    private TreeSet<String> removedBlob;
+    /**
+     * Changes since the stage was last read, saved or kept, oldest
+     * first.
+     */
+    private final ArrayList<Change> unsaved = new ArrayList<>();
+    /**
+     * Names changed since the index was last written.
+     */
+    private final LinkedHashSet<String> unwritten = new LinkedHashSet<>();
+    /**
+     * Whether the index must be rewritten whole when next written.
+     */
+    private boolean rewrite;
+    /**
+     * Names in the sorted part of the index.
+     */
+    private int baseCount;
+    /**
+     * End of the sorted part of the index.
      */
-    private ArrayList<String> removedBlob;
+    private long baseEnd;
+    /**
+     * Checksum of the sorted part of the index.
+     */
+    private int baseCrc;
+    /**
+     * End of the log of the index.
+     */
+    private long logEnd;
+    /**
+     * Records in the log of the index.
+     */
+    private int logCount;
 
 
     /**
@@ -27,8 +179,16 @@ public class Staging implements Serializable {
      */
     public Staging() {
         addedBlob = new TreeMap<>();
-        removedBlob = new ArrayList<>();
+        removedBlob = new TreeSet<>();
+        rewrite = true;
+    }
 
+    /**
+     * Checks if a stage has been saved, in the index or as stage.txt.
+     * @return if a stage can be read
+     */
+    public static boolean exists() {
+        return indexFile().isFile() || legacyFile().isFile();
     }
 
     /**
@@ -36,51 +196,115 @@ public class Staging implements Serializable {
      * @return stageFile
      */
     public static Staging readStage() {
-        File stageFile = Utils.join(Repository.STAGING_AREA, "stage.txt");
-        return Utils.readObject(stageFile, Staging.class);
+        Staging stage = new Staging();
+        if (!indexFile().isFile()) {
+            /* written whole as an index the first time it is saved*/
+            stage.decodeLegacy(Utils.readContents(legacyFile()));
+            return stage;
+        }
+        stage.rewrite = false;
+        try {
+            stage.decode(ByteBuffer.wrap(Utils.readContents(indexFile())));
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException e) {
+            throw Utils.error("Staging index is corrupt.");
+        }
+        return stage;
     }
 
     /**
-     * Adds given blob to addedblob treemap.
+     * Stages the blob ID for addition as NAME.
      * @param name String
      * @param id String
      */
     public void add(String name, String id) {
-        addedBlob.put(name, id);
+        set(name, id, false);
     }
 
     /**
-     * Adds given blob to removedblob arraylist.
+     * Stages NAME for removal.
      * @param name String
      */
     public void remove(String name) {
-        removedBlob.add(name);
+        set(name, null, true);
+    }
+
+    /**
+     * Stages NAME neither for addition nor for removal.
+     * @param name String
+     */
+    public void unstage(String name) {
+        set(name, null, false);
     }
 
     /**
      * Clears out addedblob and removedblob.
      */
     public void clear() {
+        if (isClear()) {
+            return;
+        }
+        unsaved.add(new Change(null, null, false, addedBlob, removedBlob));
         addedBlob = new TreeMap<>();
-        removedBlob = new ArrayList<>();
+        removedBlob = new TreeSet<>();
+        unwritten.clear();
+        rewrite = true;
     }
 
     /**
-     * Turns the staging object to file with fileoutput stream
-     * and object output stream with stage content, saves to file.
+     * Writes the changes made since the index was last written.
      */
     public void save() {
-        File newStage = Utils.join(Repository.STAGING_AREA, "stage.txt");
-        try {
-            FileOutputStream newS = new FileOutputStream(newStage);
-            ObjectOutputStream newSObject = new ObjectOutputStream(newS);
-            newSObject.writeObject(this);
-            newSObject.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        unsaved.clear();
+        if (rewrite || logCount + unwritten.size()
+                > Math.max(COMPACT_MIN, baseCount)) {
+            compact();
+        } else if (!unwritten.isEmpty()) {
+            append();
+        }
+        unwritten.clear();
+        rewrite = false;
+    }
+
+    /**
+     * Marks the stage as saved without writing it, for a later save.
+     */
+    public void keep() {
+        unsaved.clear();
+    }
+
+    /**
+     * Undoes every change made since the stage was last read, saved or
+     * kept.
+     */
+    public void discardUnsaved() {
+        for (int i = unsaved.size() - 1; i >= 0; i -= 1) {
+            Change c = unsaved.get(i);
+            if (c.name == null) {
+                addedBlob = c.added;
+                removedBlob = c.removedNames;
+            } else {
+                put(c.name, c.id, c.removed);
+            }
         }
+        unsaved.clear();
+    }
+
+    /**
+     * Checks if the index holds the stage as last saved or kept.
+     * @return if nothing kept is waiting to be written
+     */
+    public boolean isWritten() {
+        return unwritten.isEmpty() && !rewrite;
+    }
+
+    /**
+     * Checks if the stage is the same as when it was last read, saved or
+     * kept.
+     * @return if there are no unsaved changes
+     */
+    public boolean isSaved() {
+        return unsaved.isEmpty();
     }
 
     /**
@@ -92,27 +316,257 @@ public class Staging implements Serializable {
     }
 
     /**
-     * Returns the staging id.
-     * @return stage id
+     * Returns the addedblob treemap.
+     * @return addedblob
      */
-    public String getID() {
-        return Utils.sha1(Utils.serialize(this));
+    public SortedMap<String, String> getAdded() {
+        return Collections.unmodifiableSortedMap(addedBlob);
     }
 
     /**
-     * Returns the addedblob treemap.
-     * @return addedblob
+     * Returns the removedblob treeset.
+     * @return removedblob
      */
-    public TreeMap<String, String> getAdded() {
-        return addedBlob;
+    public SortedSet<String> getRemoved() {
+        return Collections.unmodifiableSortedSet(removedBlob);
     }
 
     /**
-     * Returns the removedblob arraylist.
-     * @return removedblob
+     * Stages NAME for addition as ID if it is not null, for removal if
+     * REMOVED, or not at all, remembering how it was staged before.
+     * @param name file name
+     * @param id blob id or null
+     * @param removed whether staged for removal
      */
-    public ArrayList<String> getRemoved() {
-        return removedBlob;
+    private void set(String name, String id, boolean removed) {
+        String oldId = addedBlob.get(name);
+        boolean wasRemoved = removedBlob.contains(name);
+        if (Objects.equals(oldId, id) && wasRemoved == removed) {
+            return;
+        }
+        unsaved.add(new Change(name, oldId, wasRemoved, null, null));
+        put(name, id, removed);
+        unwritten.add(name);
+    }
+
+    /**
+     * Stages NAME for addition as ID if it is not null, for removal if
+     * REMOVED, or not at all.
+     * @param name file name
+     * @param id blob id or null
+     * @param removed whether staged for removal
+     */
+    private void put(String name, String id, boolean removed) {
+        if (id != null) {
+            addedBlob.put(name, id);
+        } else {
+            addedBlob.remove(name);
+        }
+        if (removed) {
+            removedBlob.add(name);
+        } else {
+            removedBlob.remove(name);
+        }
+    }
+
+    /**
+     * Reads the stage from the index IN, checking every checksum.
+     * @param in index contents
+     */
+    private void decode(ByteBuffer in) {
+        byte[] magic = new byte[MAGIC.length()];
+        in.get(magic);
+        if (!MAGIC.equals(new String(magic, StandardCharsets.ISO_8859_1))
+                || in.getInt() != VERSION) {
+            throw new IllegalArgumentException("not a staging index");
+        }
+        baseCount = in.getInt();
+        baseEnd = in.getLong();
+        baseCrc = in.getInt();
+        logEnd = in.getLong();
+        logCount = in.getInt();
+        if (in.getInt() != crc(in.array(), 0, HEADER_SUMMED)
+                || baseEnd < HEADER || baseEnd > logEnd
+                || logEnd > in.limit()
+                || baseCrc != crc(in.array(), HEADER,
+                        (int) baseEnd - HEADER)) {
+            throw new IllegalArgumentException("bad checksum");
+        }
+        for (int i = 0; i < baseCount; i += 1) {
+            readRecord(in);
+        }
+        if (in.position() != baseEnd) {
+            throw new IllegalArgumentException("bad sorted part");
+        }
+        while (in.position() < logEnd) {
+            int start = in.position();
+            readRecord(in);
+            int end = in.position();
+            if (in.getInt() != crc(in.array(), start, end - start)) {
+                throw new IllegalArgumentException("bad checksum");
+            }
+        }
+    }
+
+    /**
+     * Reads one record from IN and stages its name as it says.
+     * @param in index contents
+     */
+    private void readRecord(ByteBuffer in) {
+        byte kind = in.get();
+        String name = Utils.readString(in);
+        if (kind == ADDED) {
+            put(name, Utils.readId(in), false);
+        } else if (kind == REMOVED || kind == UNSTAGED) {
+            put(name, null, kind == REMOVED);
+        } else {
+            throw new IllegalArgumentException("bad record");
+        }
+    }
+
+    /**
+     * Writes the record of how NAME is staged now to OUT.
+     * @param out destination
+     * @param name file name
+     * @throws IOException if OUT fails
+     */
+    private void writeRecord(OutputStream out, String name)
+            throws IOException {
+        String id = addedBlob.get(name);
+        if (id != null) {
+            out.write(ADDED);
+            Utils.writeString(out, name);
+            Utils.writeId(out, id);
+        } else {
+            out.write(removedBlob.contains(name) ? REMOVED : UNSTAGED);
+            Utils.writeString(out, name);
+        }
+    }
+
+    /**
+     * Appends a record for each name changed since the index was last
+     * written, then points the header past them.
+     */
+    private void append() {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try {
+            for (String name : unwritten) {
+                record.reset();
+                writeRecord(record, name);
+                byte[] bytes = record.toByteArray();
+                log.write(bytes);
+                log.write(ByteBuffer.allocate(4)
+                        .putInt(crc(bytes, 0, bytes.length)).array());
+            }
+            try (RandomAccessFile file = new RandomAccessFile(indexFile(),
+                    "rw")) {
+                file.seek(logEnd);
+                file.write(log.toByteArray());
+                logEnd += log.size();
+                logCount += unwritten.size();
+                file.seek(0);
+                file.write(header());
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Rewrites the index as the staged names in sorted order and no log,
+     * replacing the old index in one step.
+     */
+    private void compact() {
+        TreeSet<String> names = new TreeSet<>(addedBlob.keySet());
+        names.addAll(removedBlob);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            out.write(new byte[HEADER]);
+            for (String name : names) {
+                writeRecord(out, name);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        byte[] bytes = out.toByteArray();
+        baseCount = names.size();
+        baseEnd = bytes.length;
+        baseCrc = crc(bytes, HEADER, bytes.length - HEADER);
+        logEnd = baseEnd;
+        logCount = 0;
+        System.arraycopy(header(), 0, bytes, 0, HEADER);
+        try {
+            File tmp = File.createTempFile("index", ".tmp",
+                    Repository.STAGING_AREA);
+            Utils.writeContents(tmp, bytes);
+            Files.move(tmp.toPath(), indexFile().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        legacyFile().delete();
+    }
+
+    /**
+     * Returns the index header for the current part lengths.
+     * @return header bytes
+     */
+    private byte[] header() {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER);
+        buf.put(MAGIC.getBytes(StandardCharsets.ISO_8859_1));
+        buf.putInt(VERSION);
+        buf.putInt(baseCount);
+        buf.putLong(baseEnd);
+        buf.putInt(baseCrc);
+        buf.putLong(logEnd);
+        buf.putInt(logCount);
+        buf.putInt(crc(buf.array(), 0, HEADER_SUMMED));
+        return buf.array();
+    }
+
+    /**
+     * Reads the stage from BYTES, a stage.txt Java-serialized by the
+     * first versions of gitlet.
+     * @param bytes serialized stage
+     */
+    private void decodeLegacy(byte[] bytes) {
+        if (!Utils.isSerialized(bytes)) {
+            throw Utils.error("Unknown stage format.");
+        }
+        Serialized old = Utils.deserializeLegacy(bytes,
+                Staging.class.getName(), Serialized.class);
+        addedBlob.putAll(old.addedBlob);
+        removedBlob.addAll(old.removedBlob);
+    }
+
+    /**
+     * Returns the CRC-32 of LEN bytes of BYTES from OFF.
+     * @param bytes data
+     * @param off first byte
+     * @param len length
+     * @return checksum
+     */
+    private static int crc(byte[] bytes, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, off, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the index file.
+     * @return index
+     */
+    private static File indexFile() {
+        return Utils.join(Repository.STAGING_AREA, "index");
     }
-}
 
+    /**
+     * Returns the stage.txt file the index replaced.
+     * @return stage.txt
+     */
+    private static File legacyFile() {
+        return Utils.join(Repository.STAGING_AREA, "stage.txt");
+    }
+}
@@ -0,0 +1,240 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the blob id of each working file together with its size,
+ * modification time and inode when the id was known, so a file whose
+ * stat data is unchanged need not be read to know its id. A file changed
+ * within the same clock tick as the cache was written can keep its
+ * modification time, so, as in git, an entry whose time is not before
+ * the time the cache file was written is racy: it is not trusted, and
+ * the file is hashed. Writing the cache again afterwards moves its time
+ * on, so the entry is trusted from then on.
+ *
+ * @author Swetha Karthikeyan
+ */
+class StatCache {
+
+    /**
+     * First bytes of the cache file.
+     */
+    private static final String MAGIC = "GSTC";
+    /**
+     * Format version of the cache file.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Stat data of one file and its blob id.
+     */
+    private static class Entry {
+        /**
+         * Blob id of the file.
+         */
+        private final String id;
+        /**
+         * Size, modification time in nanoseconds and inode.
+         */
+        private final long[] stat;
+
+        /**
+         * Entry constructor.
+         * @param i blob id
+         * @param s stat data
+         */
+        Entry(String i, long[] s) {
+            id = i;
+            stat = s;
+        }
+    }
+
+    /**
+     * The cache file.
+     */
+    private final File file;
+    /**
+     * Entries by file name, or null until read.
+     */
+    private TreeMap<String, Entry> entries;
+    /**
+     * Modification time of the cache file in nanoseconds; entries not
+     * older are racy.
+     */
+    private long written;
+    /**
+     * Whether entries changed since the file was read or written.
+     */
+    private boolean dirty;
+
+    /**
+     * StatCache constructor. Nothing is read until first used.
+     * @param f cache file
+     */
+    StatCache(File f) {
+        file = f;
+    }
+
+    /**
+     * Returns the blob id of the file NAME, whose stat data is now STAT,
+     * or null if it is not known for that stat data.
+     * @param name file name
+     * @param stat size, modification time and inode
+     * @return blob id or null
+     */
+    String get(String name, long[] stat) {
+        load();
+        Entry e = entries.get(name);
+        if (e == null || e.stat[0] != stat[0] || e.stat[1] != stat[1]
+                || e.stat[2] != stat[2] || e.stat[1] >= written) {
+            return null;
+        }
+        return e.id;
+    }
+
+    /**
+     * Records that the file NAME had the blob ID when its stat data was
+     * STAT, taken before it was read.
+     * @param name file name
+     * @param id blob id
+     * @param stat size, modification time and inode
+     */
+    void put(String name, String id, long[] stat) {
+        load();
+        entries.put(name, new Entry(id, stat));
+        dirty = true;
+    }
+
+    /**
+     * Forgets the file NAME.
+     * @param name file name
+     */
+    void remove(String name) {
+        load();
+        dirty |= entries.remove(name) != null;
+    }
+
+    /**
+     * Forgets every file not in NAMES.
+     * @param names file names to keep
+     */
+    void retain(Set<String> names) {
+        load();
+        dirty |= entries.keySet().retainAll(names);
+    }
+
+    /**
+     * Writes the cache if it changed.
+     */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBytes(MAGIC);
+            out.writeInt(VERSION);
+            Utils.writeVarint(out, entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Utils.writeString(out, e.getKey());
+                Utils.writeId(out, e.getValue().id);
+                for (long value : e.getValue().stat) {
+                    out.writeLong(value);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        Utils.writeContents(file, bytes.toByteArray());
+        long[] stat = stat(file);
+        written = stat == null ? 0 : stat[1];
+        dirty = false;
+    }
+
+    /**
+     * Returns the size, modification time in nanoseconds and inode of
+     * FILE, or null if it does not exist. The inode is 0 where the file
+     * system does not report one.
+     * @param file file
+     * @return stat data or null
+     */
+    static long[] stat(File file) {
+        Path path = file.toPath();
+        try {
+            try {
+                Map<String, Object> a = Files.readAttributes(path,
+                        "unix:size,lastModifiedTime,ino");
+                return new long[]{(Long) a.get("size"),
+                    nanos((FileTime) a.get("lastModifiedTime")),
+                    (Long) a.get("ino")};
+            } catch (UnsupportedOperationException e) {
+                BasicFileAttributes a = Files.readAttributes(path,
+                        BasicFileAttributes.class);
+                return new long[]{a.size(), nanos(a.lastModifiedTime()), 0};
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns TIME in nanoseconds since the epoch.
+     * @param time file time
+     * @return nanoseconds
+     */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reads the cache file, if it has not been read yet. A missing or
+     * unreadable file leaves the cache empty.
+     */
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new TreeMap<>();
+        long[] stat = stat(file);
+        if (stat == null) {
+            return;
+        }
+        written = stat[1];
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(file));
+        byte[] magic = new byte[MAGIC.length()];
+        try {
+            in.get(magic);
+            if (!MAGIC.equals(new String(magic, StandardCharsets.ISO_8859_1))
+                    || in.getInt() != VERSION) {
+                return;
+            }
+            long count = Utils.readVarint(in);
+            for (long i = 0; i < count; i += 1) {
+                String name = Utils.readString(in);
+                String id = Utils.readId(in);
+                long[] s = {in.getLong(), in.getLong(), in.getLong()};
+                entries.put(name, new Entry(id, s));
+            }
+        } catch (BufferUnderflowException e) {
+            /* cut short; every file will be hashed again*/
+            entries.clear();
+        }
+    }
+}
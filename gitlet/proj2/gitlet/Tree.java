@@ -0,0 +1,408 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores the snapshot of a commit (file name to blob id) as a tree of
+ * hashed nodes. Names are placed by the hex digits of their own SHA-1:
+ * the root splits them on the first digit, its children on the second,
+ * and so on, until at most MAX_LEAF names remain and a leaf lists them.
+ * The shape depends only on the set of entries, so equal snapshots have
+ * equal root ids, and a commit that changes one file writes new nodes
+ * only along that file's path while sharing every other node with its
+ * parent. Two snapshots are compared by skipping every pair of nodes
+ * with the same id.
+ *
+ * @author Swetha Karthikeyan
+ */
+class Tree {
+
+    /**
+     * Most entries kept in one leaf.
+     */
+    private static final int MAX_LEAF = 64;
+    /**
+     * Number of children of an inner node, one per hex digit.
+     */
+    private static final int FANOUT = 16;
+    /**
+     * Node kind of leaves.
+     */
+    private static final int LEAF = 0;
+    /**
+     * Node kind of inner nodes.
+     */
+    private static final int INNER = 1;
+
+    /**
+     * One decoded tree node.
+     */
+    private static class Node {
+        /**
+         * Id of this node.
+         */
+        private String id;
+        /**
+         * Number of entries under this node.
+         */
+        private int count;
+        /**
+         * Entries of a leaf, or null for an inner node.
+         */
+        private TreeMap<String, String> entries;
+        /**
+         * Child ids of an inner node by hex digit, null where empty.
+         */
+        private String[] children;
+    }
+
+    /**
+     * Writes the tree of ENTRIES and returns its root id.
+     * @param entries file name to blob id
+     * @return root id
+     */
+    static String write(Map<String, String> entries) {
+        return build(new TreeMap<>(entries), 0, new HashMap<>()).id;
+    }
+
+    /**
+     * Writes the tree that results from applying CHANGES to the tree ROOT
+     * and returns its root id. A null blob id in CHANGES removes the name.
+     * Only nodes on the paths of changed names are read or written.
+     * @param root root id
+     * @param changes file name to new blob id or null
+     * @return new root id
+     */
+    static String update(String root, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return root;
+        }
+        Node result = update(root, 0, changes, new HashMap<>());
+        if (result == null) {
+            return write(new TreeMap<>());
+        }
+        return result.id;
+    }
+
+    /**
+     * Returns every entry of the tree ROOT.
+     * @param root root id
+     * @return file name to blob id
+     */
+    static HashMap<String, String> read(String root) {
+        HashMap<String, String> result = new HashMap<>();
+        collect(root, result);
+        return result;
+    }
+
+    /**
+     * Returns the blob id of NAME in the tree ROOT, or null.
+     * @param root root id
+     * @param name file name
+     * @return blob id or null
+     */
+    static String lookup(String root, String name) {
+        String hash = Utils.sha1(name);
+        String id = root;
+        for (int depth = 0; id != null; depth += 1) {
+            Node node = load(id);
+            if (node.entries != null) {
+                return node.entries.get(name);
+            }
+            id = node.children[digit(hash, depth)];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the names whose blob ids differ between the trees A and B,
+     * each mapped to its blob ids in A and in B (null where absent).
+     * Subtrees with the same id in both are skipped without being read.
+     * @param a root id
+     * @param b root id
+     * @return file name to {blob id in A, blob id in B}
+     */
+    static HashMap<String, String[]> diff(String a, String b) {
+        HashMap<String, String[]> result = new HashMap<>();
+        diff(a, b, result);
+        return result;
+    }
+
+    /**
+     * Returns the entries of the encoded node BYTES if it is a leaf, or
+     * an empty map if it is an inner node.
+     * @param bytes encoded node
+     * @return file name to blob id
+     */
+    static Map<String, String> leafEntries(byte[] bytes) {
+        Node node = decode(null, bytes);
+        if (node.entries == null) {
+            return new TreeMap<>();
+        }
+        return node.entries;
+    }
+
+    /**
+     * Adds the differences between the subtrees A and B to RESULT.
+     * @param a node id or null
+     * @param b node id or null
+     * @param result file name to {blob id in A, blob id in B}
+     */
+    private static void diff(String a, String b,
+                             HashMap<String, String[]> result) {
+        if (a == null ? b == null : a.equals(b)) {
+            return;
+        }
+        Node nodeA = a == null ? null : load(a);
+        Node nodeB = b == null ? null : load(b);
+        if (nodeA != null && nodeB != null
+                && nodeA.children != null && nodeB.children != null) {
+            for (int i = 0; i < FANOUT; i += 1) {
+                diff(nodeA.children[i], nodeB.children[i], result);
+            }
+            return;
+        }
+        HashMap<String, String> entriesA = new HashMap<>();
+        HashMap<String, String> entriesB = new HashMap<>();
+        collect(nodeA, entriesA);
+        collect(nodeB, entriesB);
+        for (Map.Entry<String, String> e : entriesA.entrySet()) {
+            String other = entriesB.get(e.getKey());
+            if (!e.getValue().equals(other)) {
+                result.put(e.getKey(), new String[]{e.getValue(), other});
+            }
+        }
+        for (Map.Entry<String, String> e : entriesB.entrySet()) {
+            if (!entriesA.containsKey(e.getKey())) {
+                result.put(e.getKey(), new String[]{null, e.getValue()});
+            }
+        }
+    }
+
+    /**
+     * Returns the subtree at DEPTH that results from applying CHANGES to
+     * the subtree ID, or null if it is left empty. HASHES caches the
+     * SHA-1 of each name.
+     * @param id node id or null
+     * @param depth node depth
+     * @param changes file name to new blob id or null
+     * @param hashes file name to its SHA-1
+     * @return new node or null
+     */
+    private static Node update(String id, int depth,
+                               Map<String, String> changes,
+                               HashMap<String, String> hashes) {
+        Node node = id == null ? null : load(id);
+        if (node == null || node.entries != null) {
+            TreeMap<String, String> entries = new TreeMap<>();
+            if (node != null) {
+                entries.putAll(node.entries);
+            }
+            for (Map.Entry<String, String> e : changes.entrySet()) {
+                if (e.getValue() == null) {
+                    entries.remove(e.getKey());
+                } else {
+                    entries.put(e.getKey(), e.getValue());
+                }
+            }
+            return build(entries, depth, hashes);
+        }
+        HashMap<Integer, Map<String, String>> groups = new HashMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            groups.computeIfAbsent(digit(hash(e.getKey(), hashes), depth),
+                    k -> new HashMap<>()).put(e.getKey(), e.getValue());
+        }
+        String[] children = node.children.clone();
+        int count = node.count;
+        for (Map.Entry<Integer, Map<String, String>> g : groups.entrySet()) {
+            int i = g.getKey();
+            if (children[i] != null) {
+                count -= load(children[i]).count;
+            }
+            Node child = update(children[i], depth + 1, g.getValue(), hashes);
+            children[i] = child == null ? null : child.id;
+            count += child == null ? 0 : child.count;
+        }
+        if (count <= MAX_LEAF) {
+            /* few enough entries left to collapse into a leaf*/
+            TreeMap<String, String> entries = new TreeMap<>();
+            for (String child : children) {
+                if (child != null) {
+                    collect(child, entries);
+                }
+            }
+            return build(entries, depth, hashes);
+        }
+        Node result = new Node();
+        result.children = children;
+        result.count = count;
+        return save(result);
+    }
+
+    /**
+     * Writes the subtree at DEPTH holding ENTRIES and returns its root,
+     * or null if ENTRIES is empty below the root.
+     * @param entries file name to blob id
+     * @param depth node depth
+     * @param hashes file name to its SHA-1
+     * @return node or null
+     */
+    private static Node build(TreeMap<String, String> entries, int depth,
+                              HashMap<String, String> hashes) {
+        if (entries.isEmpty() && depth > 0) {
+            return null;
+        }
+        Node node = new Node();
+        node.count = entries.size();
+        if (entries.size() <= MAX_LEAF || depth == Utils.UID_LENGTH) {
+            node.entries = entries;
+            return save(node);
+        }
+        TreeMap<Integer, TreeMap<String, String>> groups = new TreeMap<>();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            groups.computeIfAbsent(digit(hash(e.getKey(), hashes), depth),
+                    k -> new TreeMap<>()).put(e.getKey(), e.getValue());
+        }
+        node.children = new String[FANOUT];
+        for (Map.Entry<Integer, TreeMap<String, String>> g
+                : groups.entrySet()) {
+            node.children[g.getKey()] =
+                    build(g.getValue(), depth + 1, hashes).id;
+        }
+        return save(node);
+    }
+
+    /**
+     * Adds every entry under the node ID to RESULT.
+     * @param id node id
+     * @param result file name to blob id
+     */
+    private static void collect(String id, Map<String, String> result) {
+        collect(load(id), result);
+    }
+
+    /**
+     * Adds every entry under NODE, which may be null, to RESULT.
+     * @param node node or null
+     * @param result file name to blob id
+     */
+    private static void collect(Node node, Map<String, String> result) {
+        if (node == null) {
+            return;
+        }
+        if (node.entries != null) {
+            result.putAll(node.entries);
+            return;
+        }
+        for (String child : node.children) {
+            if (child != null) {
+                collect(child, result);
+            }
+        }
+    }
+
+    /**
+     * Encodes NODE, sets its id and stores it unless it already exists.
+     * @param node node
+     * @return node
+     */
+    private static Node save(Node node) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (node.entries != null) {
+                out.write(LEAF);
+                Utils.writeVarint(out, node.entries.size());
+                for (Map.Entry<String, String> e : node.entries.entrySet()) {
+                    Utils.writeString(out, e.getKey());
+                    Utils.writeId(out, e.getValue());
+                }
+            } else {
+                out.write(INNER);
+                Utils.writeVarint(out, node.count);
+                int bitmap = 0;
+                for (int i = 0; i < FANOUT; i += 1) {
+                    if (node.children[i] != null) {
+                        bitmap |= 1 << i;
+                    }
+                }
+                out.write(bitmap >> 8);
+                out.write(bitmap);
+                for (String child : node.children) {
+                    if (child != null) {
+                        Utils.writeId(out, child);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        byte[] bytes = out.toByteArray();
+        node.id = Utils.sha1(bytes);
+        ObjectStore.writeTree(node.id, bytes);
+        return node;
+    }
+
+    /**
+     * Reads the node ID.
+     * @param id node id
+     * @return node
+     */
+    private static Node load(String id) {
+        return decode(id, ObjectStore.readTree(id));
+    }
+
+    /**
+     * Decodes the node ID from its stored BYTES.
+     * @param id node id
+     * @param bytes encoded node
+     * @return node
+     */
+    private static Node decode(String id, byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        Node node = new Node();
+        node.id = id;
+        int kind = in.get();
+        node.count = (int) Utils.readVarint(in);
+        if (kind == LEAF) {
+            node.entries = new TreeMap<>();
+            for (int i = 0; i < node.count; i += 1) {
+                String name = Utils.readString(in);
+                node.entries.put(name, Utils.readId(in));
+            }
+        } else {
+            int bitmap = ((in.get() & 0xff) << 8) | (in.get() & 0xff);
+            node.children = new String[FANOUT];
+            for (int i = 0; i < FANOUT; i += 1) {
+                if ((bitmap & (1 << i)) != 0) {
+                    node.children[i] = Utils.readId(in);
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the SHA-1 of NAME, caching it in HASHES.
+     * @param name file name
+     * @param hashes file name to its SHA-1
+     * @return hash
+     */
+    private static String hash(String name, HashMap<String, String> hashes) {
+        return hashes.computeIfAbsent(name, Utils::sha1);
+    }
+
+    /**
+     * Returns the value of the hex digit of HASH at DEPTH.
+     * @param hash SHA-1 of a name
+     * @param depth node depth
+     * @return digit
+     */
+    private static int digit(String hash, int depth) {
+        return Character.digit(hash.charAt(depth), 16);
+    }
+}
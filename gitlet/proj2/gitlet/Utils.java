@@ -1,14 +1,19 @@
 package gitlet;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
 
 
 /**
@@ -26,6 +31,11 @@ class Utils {
      */
     static final int UID_LENGTH = 40;
 
+    /**
+     * The hexadecimal digits, indexed by value.
+     */
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
     /* SHA-1 HASH VALUES. */
     /**
      * Filter out all but plain files.
@@ -162,8 +172,21 @@ class Utils {
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                    new ObjectInputStream(new FileInputStream(file));
+            return readObject(new FileInputStream(file), expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /**
+     * Return an object of type T read from the stream STREAM, casting it to
+     * EXPECTEDCLASS, and close STREAM.  Throws IllegalArgumentException in
+     * case of problems.
+     */
+    static <T extends Serializable> T readObject(InputStream stream,
+                                                 Class<T> expectedClass) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(stream);
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -265,6 +288,181 @@ class Utils {
         }
     }
 
+    /**
+     * Return an object of type T deserialized from BYTES, casting it to
+     * EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems.
+     */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                    new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /**
+     * Returns whether BYTES begin with the Java serialization stream
+     * magic, as the objects written by the first versions of gitlet do.
+     */
+    static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 2
+                && (short) (bytes[0] << 8 | bytes[1] & 0xff)
+                == ObjectStreamConstants.STREAM_MAGIC;
+    }
+
+    /**
+     * Return the object of the class NAME serialized in BYTES, read as an
+     * instance of LOCAL, which has fields of the same names and types.
+     * The class NAME no longer has those fields, so its serialVersionUID
+     * is not checked; nothing but LOCAL and the strings and collections
+     * of its fields, or arrays of them, may be read.  Throws
+     * IllegalArgumentException in case of problems.
+     */
+    static <T extends Serializable> T deserializeLegacy(byte[] bytes,
+                                                        String name,
+                                                        Class<T> local) {
+        Set<Class<?>> allowed = Set.of(local, String.class,
+                ArrayList.class, HashMap.class, TreeMap.class);
+        try (ObjectInputStream in =
+                     new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+                 @Override
+                 protected ObjectStreamClass readClassDescriptor()
+                         throws IOException, ClassNotFoundException {
+                     ObjectStreamClass desc = super.readClassDescriptor();
+                     return desc.getName().equals(name)
+                             ? ObjectStreamClass.lookup(local) : desc;
+                 }
+             }) {
+            in.setObjectInputFilter(info -> info.serialClass() == null
+                    || info.serialClass().isArray()
+                    || allowed.contains(info.serialClass())
+                    ? ObjectInputFilter.Status.UNDECIDED
+                    : ObjectInputFilter.Status.REJECTED);
+            return local.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp);
+        }
+    }
+
+    /* BINARY ENCODING UTILITIES */
+
+    /**
+     * Returns the 20 raw bytes of the hexadecimal SHA-1 UID HEX.
+     */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the lower-case hexadecimal numeral for the bytes
+     * BYTES[START .. START + LEN - 1].
+     */
+    static String bytesToHex(byte[] bytes, int start, int len) {
+        char[] result = new char[2 * len];
+        for (int i = 0; i < len; i += 1) {
+            int b = bytes[start + i];
+            result[2 * i] = HEX_DIGITS.charAt((b >> 4) & 0xf);
+            result[2 * i + 1] = HEX_DIGITS.charAt(b & 0xf);
+        }
+        return new String(result);
+    }
+
+    /**
+     * Writes the non-negative VALUE to OUT as a little-endian base-128
+     * varint: seven bits per byte, high bit set on all but the last.
+     */
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Writes STR to OUT as its varint UTF-8 length followed by its UTF-8
+     * bytes.
+     */
+    static void writeString(OutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a varint written by writeVarint from BUF.
+     */
+    static long readVarint(ByteBuffer buf) {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buf.get();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Reads a string written by writeString from BUF, which must be backed
+     * by an array.
+     */
+    static String readString(ByteBuffer buf) {
+        int len = (int) readVarint(buf);
+        String result = new String(buf.array(),
+                buf.arrayOffset() + buf.position(), len,
+                StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return result;
+    }
+
+    /**
+     * Reads a UID written by writeId from BUF, which must be backed by an
+     * array.
+     */
+    static String readId(ByteBuffer buf) {
+        String result = bytesToHex(buf.array(),
+                buf.arrayOffset() + buf.position(), UID_LENGTH / 2);
+        buf.position(buf.position() + UID_LENGTH / 2);
+        return result;
+    }
+
+    /**
+     * Writes the 40-character hexadecimal UID ID to OUT as 20 raw bytes.
+     */
+    static void writeId(OutputStream out, String id) throws IOException {
+        out.write(hexToBytes(id));
+    }
+
+    /**
+     * Reads a varint written by writeVarint from IN.
+     */
+    static long readVarint(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("truncated varint");
+            }
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
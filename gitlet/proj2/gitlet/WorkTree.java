@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Lists the files of the working directory. Directories are listed on a
+ * fork-join pool: each directory is a task, and a long listing is split
+ * in halves until each part is short enough to check on one thread, so
+ * both wide and deep trees are spread over the pool. A directory whose
+ * listing the DirCache still vouches for is not read at all, so an
+ * unchanged tree costs one stat per directory. Only files the sparse
+ * patterns keep are found, and only directories that can hold them are
+ * entered. Names are handed to the caller as they are found, relative
+ * to the working directory and separated by /, in no particular order.
+ * The .gitlet directory is never entered.
+ *
+ * @author Swetha Karthikeyan
+ */
+class WorkTree {
+
+    /**
+     * Directory entries one task checks without splitting.
+     */
+    private static final int SPLIT = 256;
+
+    /**
+     * Lists one directory and everything under it.
+     */
+    private static class Dir extends RecursiveAction {
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The directory.
+         */
+        private final File dir;
+        /**
+         * Name of the directory relative to the root, or empty for the
+         * root.
+         */
+        private final String name;
+        /**
+         * Listings of directories already read.
+         */
+        private final DirCache cache;
+        /**
+         * Files kept in the working directory.
+         */
+        private final Sparse sparse;
+        /**
+         * Receives each file name found.
+         */
+        private final Consumer<String> found;
+
+        /**
+         * Dir constructor.
+         * @param d directory
+         * @param n directory name relative to the root
+         * @param c listings already read
+         * @param s files kept
+         * @param f receives file names
+         */
+        Dir(File d, String n, DirCache c, Sparse s, Consumer<String> f) {
+            dir = d;
+            name = n;
+            cache = c;
+            sparse = s;
+            found = f;
+        }
+
+        @Override
+        protected void compute() {
+            long[] stat = StatCache.stat(dir);
+            if (stat == null) {
+                return;
+            }
+            DirCache.Listing listing = cache.get(name, stat);
+            List<String> files;
+            List<String> dirs;
+            if (listing != null) {
+                files = listing.files();
+                dirs = listing.dirs();
+            } else {
+                String[] names = dir.list();
+                if (names == null) {
+                    names = new String[0];
+                }
+                files = Collections.synchronizedList(new ArrayList<>());
+                dirs = Collections.synchronizedList(new ArrayList<>());
+                new Part(dir, names, 0, names.length, files, dirs).invoke();
+                files = sorted(files);
+                dirs = sorted(dirs);
+                if (name.isEmpty()) {
+                    dirs.remove(".gitlet");
+                }
+                cache.put(name, stat, files, dirs);
+            }
+            String prefix = name.isEmpty() ? "" : name + "/";
+            for (String file : files) {
+                if (sparse.matches(prefix + file)) {
+                    found.accept(prefix + file);
+                }
+            }
+            List<Dir> subdirs = new ArrayList<>();
+            for (String sub : dirs) {
+                if (sparse.entersDir(prefix + sub)) {
+                    subdirs.add(new Dir(new File(dir, sub), prefix + sub,
+                            cache, sparse, found));
+                }
+            }
+            invokeAll(subdirs);
+        }
+    }
+
+    /**
+     * Sorts the entries NAMES[lo..hi) of a directory into files and
+     * subdirectories.
+     */
+    private static class Part extends RecursiveAction {
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The directory.
+         */
+        private final File dir;
+        /**
+         * Entries of the directory.
+         */
+        private final String[] names;
+        /**
+         * First entry checked.
+         */
+        private final int lo;
+        /**
+         * One past the last entry checked.
+         */
+        private final int hi;
+        /**
+         * Receives the names of files.
+         */
+        private final List<String> files;
+        /**
+         * Receives the names of subdirectories.
+         */
+        private final List<String> dirs;
+
+        /**
+         * Part constructor.
+         * @param d directory
+         * @param n entries of the directory
+         * @param l first entry
+         * @param h one past the last entry
+         * @param f receives file names
+         * @param s receives subdirectory names
+         */
+        Part(File d, String[] n, int l, int h, List<String> f,
+             List<String> s) {
+            dir = d;
+            names = n;
+            lo = l;
+            hi = h;
+            files = f;
+            dirs = s;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > SPLIT) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Part(dir, names, lo, mid, files, dirs),
+                        new Part(dir, names, mid, hi, files, dirs));
+                return;
+            }
+            for (int i = lo; i < hi; i += 1) {
+                File file = new File(dir, names[i]);
+                if (file.isFile()) {
+                    files.add(names[i]);
+                } else if (file.isDirectory()) {
+                    dirs.add(names[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands every file under ROOT that SPARSE keeps to FOUND, which may
+     * be called from several threads at once, reading only directories
+     * CACHE does not vouch for and recording their listings in it. Uses
+     * at most THREADS threads and returns once all are found.
+     * @param root working directory
+     * @param cache listings already read
+     * @param sparse files kept
+     * @param threads most threads used
+     * @param found receives file names
+     */
+    static void scan(File root, DirCache cache, Sparse sparse, int threads,
+                     Consumer<String> found) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new Dir(root, "", cache, sparse, found));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Deletes the file NAME under ROOT, then each directory above it,
+     * short of ROOT, that it leaves empty.
+     * @param root working directory
+     * @param name file name
+     */
+    static void delete(File root, String name) {
+        File file = new File(root, name);
+        if (!file.delete()) {
+            return;
+        }
+        File base = root.getAbsoluteFile();
+        for (File dir = file.getAbsoluteFile().getParentFile();
+             dir != null && !dir.equals(base) && dir.delete();
+             dir = dir.getParentFile()) {
+            continue;
+        }
+    }
+
+    /**
+     * Returns NAMES sorted.
+     * @param names names
+     * @return sorted copy
+     */
+    private static List<String> sorted(List<String> names) {
+        List<String> result = new ArrayList<>(names);
+        Collections.sort(result);
+        return result;
+    }
+}